@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import fredboat.benchmark.Stubs;
+import lavalink.client.player.LavaplayerPlayerWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocations of the local (non Lavalink) audio send path, one operation is one 20ms frame.
+ * <p>
+ * Run with the gc profiler to see the bytes allocated per frame (gc.alloc.rate.norm):
+ * ./gradlew :Benchmarks:jmh -Pinclude=AudioSend -Pprofilers=gc
+ * <p>
+ * {@link #sendPath()} measures what FredBoat does with a frame that is already buffered, {@link #localPlayback()}
+ * measures a frame end to end, including the decoding and encoding that lavaplayer does on its own threads.
+ */
+@State(Scope.Thread)
+public class AudioSendBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int SECONDS = 30;
+
+    private BenchmarkPlayer player;
+
+    private AudioPlayerManager manager;
+    private AudioPlayer localPlayer;
+    private AudioTrack localTrack;
+    private File wav;
+
+    @Setup
+    public void setup() throws Exception {
+        //a player that always has the same opus frame buffered
+        AudioFrame frame = new AudioFrame(0, new byte[160], 100, StandardAudioDataFormats.DISCORD_OPUS);
+        AudioTrack playing = Stubs.of(AudioTrack.class).build();
+        AudioPlayer buffered = Stubs.of(AudioPlayer.class)
+                .with("provide", frame)
+                .with("getPlayingTrack", playing)
+                .build();
+        player = new BenchmarkPlayer(buffered);
+
+        //an actual local player, decoding a generated wav file and encoding it to opus
+        wav = File.createTempFile("fredboat-benchmark", ".wav");
+        writeSineWav(wav);
+        manager = new DefaultAudioPlayerManager();
+        manager.setFrameBufferDuration(1000); //same as our players
+        AudioSourceManagers.registerLocalSource(manager);
+        manager.loadItem(wav.getAbsolutePath(), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                localTrack = track;
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+            }
+
+            @Override
+            public void noMatches() {
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                throw exception;
+            }
+        }).get();
+        if (localTrack == null) {
+            throw new IllegalStateException("Could not load " + wav);
+        }
+        localPlayer = manager.createPlayer();
+        localPlayer.playTrack(localTrack.makeClone());
+    }
+
+    @TearDown
+    public void tearDown() {
+        localPlayer.destroy();
+        manager.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        wav.delete();
+    }
+
+    @Benchmark
+    public byte[] sendPath() {
+        if (player.canProvide()) {
+            return player.provide20MsAudio();
+        }
+        return null;
+    }
+
+    @Benchmark
+    public AudioFrame localPlayback() throws Exception {
+        AudioFrame frame = localPlayer.provide(1, TimeUnit.SECONDS);
+        if (frame == null && localPlayer.getPlayingTrack() == null) {
+            localPlayer.playTrack(localTrack.makeClone());
+        }
+        return frame;
+    }
+
+    private static class BenchmarkPlayer extends AbstractPlayer {
+        BenchmarkPlayer(AudioPlayer audioPlayer) {
+            super("174820236481134592");
+            player = new LavaplayerPlayerWrapper(audioPlayer);
+        }
+    }
+
+    //16 bit pcm, a 440Hz sine wave
+    private static void writeSineWav(File file) throws IOException {
+        int samples = SAMPLE_RATE * SECONDS;
+        int dataLength = samples * CHANNELS * 2;
+        try (OutputStream out = new FileOutputStream(file);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+            data.writeBytes("RIFF");
+            data.writeInt(Integer.reverseBytes(36 + dataLength));
+            data.writeBytes("WAVEfmt ");
+            data.writeInt(Integer.reverseBytes(16));
+            data.writeShort(Short.reverseBytes((short) 1)); //pcm
+            data.writeShort(Short.reverseBytes((short) CHANNELS));
+            data.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            data.writeInt(Integer.reverseBytes(SAMPLE_RATE * CHANNELS * 2));
+            data.writeShort(Short.reverseBytes((short) (CHANNELS * 2)));
+            data.writeShort(Short.reverseBytes((short) 16));
+            data.writeBytes("data");
+            data.writeInt(Integer.reverseBytes(dataLength));
+            for (int i = 0; i < samples; i++) {
+                short sample = (short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * Short.MAX_VALUE / 4);
+                for (int c = 0; c < CHANNELS; c++) {
+                    data.writeShort(Short.reverseBytes(sample));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Queue operations on a large queue. Operations that change the queue undo their change, so the size stays constant.
+ */
+@State(Scope.Thread)
+public class SimpleTrackProviderBenchmark {
+
+    private static final long GUILD_ID = 174820236481134592L;
+
+    @Param({"10000"})
+    public int queueSize;
+
+    private YoutubeAudioSourceManager youtube;
+    private SimpleTrackProvider provider;
+    private AudioTrackContext spare;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        youtube = new YoutubeAudioSourceManager();
+        provider = new SimpleTrackProvider();
+        for (int i = 0; i < queueSize; i++) {
+            provider.add(track(i));
+        }
+        spare = track(queueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        youtube.shutdown();
+    }
+
+    private AudioTrackContext track(int i) {
+        return new AudioTrackContext(
+                youtube.buildTrackObject("video" + i, "Track " + i, "uploader", false, 180000 + i),
+                GUILD_ID, 81011298891993088L + (i % 50));
+    }
+
+    @Benchmark
+    public boolean addAndRemove() {
+        provider.add(spare);
+        return provider.remove(spare);
+    }
+
+    @Benchmark
+    public int removeAtAndAdd() {
+        AudioTrackContext removed = provider.removeAt(ThreadLocalRandom.current().nextInt(queueSize));
+        provider.add(removed);
+        return provider.size();
+    }
+
+    @Benchmark
+    public boolean toggleShuffle() {
+        provider.setShuffle(!provider.isShuffle());
+        return provider.isShuffle();
+    }
+
+    @Benchmark
+    public void reshuffle() {
+        provider.reshuffle();
+    }
+
+    @Benchmark
+    public List<AudioTrackContext> getTracksInRange() {
+        int from = ThreadLocalRandom.current().nextInt(queueSize - 10);
+        return provider.getTracksInRange(from, from + 10);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.benchmark;
+
+import fredboat.messaging.internal.Context;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+
+/**
+ * A context made of stubbed entities, see {@link Stubs}
+ */
+public class BenchmarkContext extends Context {
+
+    private final TextChannel channel;
+    private final Member member;
+    private final Guild guild;
+
+    public BenchmarkContext(long guildId, long userId) {
+        User user = Stubs.of(User.class)
+                .with("getIdLong", userId)
+                .with("getId", Long.toString(userId))
+                .build();
+        this.guild = Stubs.of(Guild.class)
+                .with("getIdLong", guildId)
+                .with("getId", Long.toString(guildId))
+                .build();
+        this.member = Stubs.of(Member.class)
+                .with("getUser", user)
+                .with("getGuild", guild)
+                .build();
+        this.channel = Stubs.of(TextChannel.class)
+                .with("getGuild", guild)
+                .build();
+    }
+
+    @Override
+    public TextChannel getTextChannel() {
+        return channel;
+    }
+
+    @Override
+    public Guild getGuild() {
+        return guild;
+    }
+
+    @Override
+    public Member getMember() {
+        return member;
+    }
+
+    @Override
+    public User getUser() {
+        return member.getUser();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.commandmeta.abs;
+
+import fredboat.benchmark.Stubs;
+import fredboat.commandmeta.init.MainCommandInitializer;
+import fredboat.commandmeta.init.MusicCommandInitializer;
+import fredboat.feature.I18n;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.ChannelType;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.SelfUser;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of incoming messages into command contexts, which happens for every message the bot can see.
+ */
+@State(Scope.Benchmark)
+public class CommandContextBenchmark {
+
+    private MessageReceivedEvent command;
+    private MessageReceivedEvent mention;
+    private MessageReceivedEvent chatter;
+
+    @Setup
+    public void setup() {
+        I18n.start();
+        MainCommandInitializer.initCommands();
+        MusicCommandInitializer.initCommands();
+
+        SelfUser self = Stubs.of(SelfUser.class)
+                .with("getId", "184405311681986560")
+                .with("getIdLong", 184405311681986560L)
+                .build();
+        JDA jda = Stubs.of(JDA.class)
+                .with("getSelfUser", self)
+                .build();
+
+        command = event(jda, "<<play https://www.youtube.com/watch?v=dQw4w9WgXcQ");
+        mention = event(jda, "<@184405311681986560> queue 2");
+        chatter = event(jda, "has anyone seen the new trailer yet?");
+    }
+
+    private static MessageReceivedEvent event(JDA jda, String content) {
+        User user = Stubs.of(User.class)
+                .with("getIdLong", 81011298891993088L)
+                .with("getId", "81011298891993088")
+                .build();
+        Member member = Stubs.of(Member.class)
+                .with("getUser", user)
+                .build();
+        Guild guild = Stubs.of(Guild.class)
+                .with("getIdLong", 174820236481134592L)
+                .with("getId", "174820236481134592")
+                .with("getMember", member)
+                .build();
+        TextChannel channel = Stubs.of(TextChannel.class)
+                .with("getType", ChannelType.TEXT)
+                .with("getGuild", guild)
+                .build();
+        Message message = Stubs.of(Message.class)
+                .with("getRawContent", content)
+                .with("getChannel", channel)
+                .with("getTextChannel", channel)
+                .with("getGuild", guild)
+                .with("getMember", member)
+                .with("getAuthor", user)
+                .with("getIdLong", 1L)
+                .build();
+        return new MessageReceivedEvent(jda, 0, message);
+    }
+
+    @Benchmark
+    public CommandContext parseCommand() {
+        return CommandContext.parse(command);
+    }
+
+    @Benchmark
+    public CommandContext parseMention() {
+        return CommandContext.parse(mention);
+    }
+
+    @Benchmark
+    public CommandContext parseChatter() {
+        return CommandContext.parse(chatter);
+    }
+}
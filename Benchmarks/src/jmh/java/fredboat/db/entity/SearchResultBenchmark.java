@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db.entity;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.util.rest.SearchUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serialization of cached search results, without the database round trip. The legacy benchmarks read the Java
+ * serialized format that old rows are still stored in.
+ */
+@State(Scope.Benchmark)
+public class SearchResultBenchmark {
+
+    private static final String SEARCH_TERM = "darude sandstorm";
+
+    private AudioPlayerManager playerManager;
+    private AudioPlaylist playlist;
+    private SearchResult stored;
+    private byte[] legacy;
+
+    @Setup
+    public void setup() {
+        playerManager = new DefaultAudioPlayerManager();
+        YoutubeAudioSourceManager youtube = new YoutubeAudioSourceManager();
+        playerManager.registerSourceManager(youtube);
+
+        //a youtube search returns 20 results
+        List<AudioTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tracks.add(youtube.buildTrackObject("video" + i, "Search result " + i, "uploader", false, 180000 + i));
+        }
+        playlist = new BasicAudioPlaylist("Search results for: " + SEARCH_TERM, tracks, null, true);
+        stored = new SearchResult(playerManager, SearchUtil.SearchProvider.YOUTUBE, SEARCH_TERM, playlist);
+        legacy = SearchResult.encodeLegacy(playerManager, playlist);
+    }
+
+    @TearDown
+    public void tearDown() {
+        playerManager.shutdown();
+    }
+
+    @Benchmark
+    public SearchResult serialize() {
+        return new SearchResult(playerManager, SearchUtil.SearchProvider.YOUTUBE, SEARCH_TERM, playlist);
+    }
+
+    @Benchmark
+    public AudioPlaylist deserialize() {
+        return stored.getSearchResult(playerManager);
+    }
+
+    @Benchmark
+    public AudioPlaylist roundTrip() {
+        return new SearchResult(playerManager, SearchUtil.SearchProvider.YOUTUBE, SEARCH_TERM, playlist)
+                .getSearchResult(playerManager);
+    }
+
+    @Benchmark
+    public byte[] serializeLegacy() {
+        return SearchResult.encodeLegacy(playerManager, playlist);
+    }
+
+    @Benchmark
+    public AudioPlaylist deserializeLegacy() {
+        return SearchResult.decode(playerManager, legacy);
+    }
+}
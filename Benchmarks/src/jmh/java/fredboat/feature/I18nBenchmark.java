@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.feature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+/**
+ * Lookups of translated strings, which happen for nearly every reply. Guild specific languages need the database, so
+ * this uses the default language.
+ */
+@State(Scope.Benchmark)
+public class I18nBenchmark {
+
+    @Setup
+    public void setup() {
+        I18n.start();
+    }
+
+    @Benchmark
+    public ResourceBundle getBundle() {
+        return I18n.get(null);
+    }
+
+    @Benchmark
+    public String getString() {
+        return I18n.get(null).getString("skipSuccess");
+    }
+
+    @Benchmark
+    public I18n.FredBoatLocale getLocale() {
+        return I18n.LANGS.get("de_DE");
+    }
+
+    @Benchmark
+    public String format() {
+        return MessageFormat.format(I18n.get(null).getString("skipSuccess"), 3, "Darude - Sandstorm");
+    }
+}
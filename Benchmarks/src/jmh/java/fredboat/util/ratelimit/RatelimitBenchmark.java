@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.ratelimit;
+
+import fredboat.benchmark.BenchmarkContext;
+import fredboat.commandmeta.abs.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+
+/**
+ * The ratelimit check that runs right before every command execution. {@link Ratelimiter} itself needs a running shard
+ * to be created, so this measures the {@link Ratelimit} objects it consists of.
+ */
+@State(Scope.Benchmark)
+public class RatelimitBenchmark {
+
+    @Param({"1000"})
+    public int users;
+
+    private Ratelimit ratelimit;
+    private BenchmarkContext[] contexts;
+
+    @Setup
+    public void setup() {
+        ratelimit = new Ratelimit(Collections.singleton(0L), Ratelimit.Scope.USER, 5, 10000, Command.class);
+        contexts = new BenchmarkContext[users];
+        for (int i = 0; i < users; i++) {
+            contexts[i] = new BenchmarkContext(174820236481134592L, 81011298891993088L + i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+    }
+
+    @Benchmark
+    public boolean isAllowed(Cursor cursor) {
+        BenchmarkContext context = contexts[cursor.next];
+        cursor.next = (cursor.next + 1) % contexts.length;
+        return ratelimit.isAllowed(context, 1, null);
+    }
+}
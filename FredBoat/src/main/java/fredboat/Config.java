@@ -121,6 +121,20 @@ public class Config {
     private Boolean spotifyAudio;
     private Boolean httpAudio;
 
+    //Player stuff
+    private int trackPreloadMargin;
+    private int trackHistorySize;
+
+    //Search result cache
+    private int searchCacheHeapSize;
+    private int searchCacheFileSize;
+
+    private int spotifyResolverThreads;
+
+    //Hedged searches
+    private int searchHedgePercentile;
+    private int searchHedgeBudget;
+
     @SuppressWarnings("unchecked")
     public Config(File credentialsFile, File configFile) {
         try {
@@ -227,19 +241,24 @@ public class Config {
                 });
             }
 
-            //this is the first request on start
-            //it sometimes fails cause network isn't set up yet. wait 10 sec and try one more time in that case
-            try {
-                numShards = DiscordUtil.getRecommendedShardCount(getBotToken());
-            } catch (Exception e) {
+            numShards = (int) config.getOrDefault("numShards", 0);
+            if (numShards > 0) {
+                log.info("Using " + numShards + " shard(s) as configured");
+            } else {
+                //this is the first request on start
+                //it sometimes fails cause network isn't set up yet. wait 10 sec and try one more time in that case
                 try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException ex) {
-                    //duh
+                    numShards = DiscordUtil.getRecommendedShardCount(getBotToken());
+                } catch (Exception e) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException ex) {
+                        //duh
+                    }
+                    numShards = DiscordUtil.getRecommendedShardCount(getBotToken());
                 }
-                numShards = DiscordUtil.getRecommendedShardCount(getBotToken());
+                log.info("Discord recommends " + numShards + " shard(s)");
             }
-            log.info("Discord recommends " + numShards + " shard(s)");
 
             //more database connections don't help with performance, so use a value based on available cores
             //http://www.dailymotion.com/video/x2s8uec_oltp-performance-concurrent-mid-tier-connections_tech
@@ -274,6 +293,16 @@ public class Config {
             spotifyAudio = (Boolean) config.getOrDefault("enableSpotify", true);
             httpAudio = (Boolean) config.getOrDefault("enableHttp", false);
 
+            trackPreloadMargin = (int) config.getOrDefault("trackPreloadMargin", 10000);
+            trackHistorySize = Math.max(1, (int) config.getOrDefault("trackHistorySize", 20));
+
+            searchCacheHeapSize = Math.max(0, (int) config.getOrDefault("searchCacheHeapSize", 16));
+            searchCacheFileSize = Math.max(0, (int) config.getOrDefault("searchCacheFileSize", 128));
+
+            spotifyResolverThreads = Math.max(1, (int) config.getOrDefault("spotifyResolverThreads", 4));
+            searchHedgePercentile = Math.min(Math.max(0, (int) config.getOrDefault("searchHedgePercentile", 95)), 100);
+            searchHedgeBudget = Math.min(Math.max(0, (int) config.getOrDefault("searchHedgeBudget", 10)), 100);
+
         } catch (IOException e) {
             throw new RuntimeException(e);
         } catch (YAMLException | ClassCastException e) {
@@ -517,4 +546,35 @@ public class Config {
     public boolean isHttpEnabled() {
         return httpAudio;
     }
+
+    public int getTrackPreloadMargin() {
+        return trackPreloadMargin;
+    }
+
+    public int getTrackHistorySize() {
+        return trackHistorySize;
+    }
+
+    //megabytes
+    public int getSearchCacheHeapSize() {
+        return searchCacheHeapSize;
+    }
+
+    //megabytes
+    public int getSearchCacheFileSize() {
+        return searchCacheFileSize;
+    }
+
+    public int getSpotifyResolverThreads() {
+        return spotifyResolverThreads;
+    }
+
+    public int getSearchHedgePercentile() {
+        return searchHedgePercentile;
+    }
+
+    //percent of searches
+    public int getSearchHedgeBudget() {
+        return searchHedgeBudget;
+    }
 }
@@ -26,13 +26,16 @@
 package fredboat;
 
 import com.sedmelluq.discord.lavaplayer.tools.PlayerLibrary;
+import fredboat.agent.AudioQualityAgent;
 import fredboat.agent.CarbonitexAgent;
 import fredboat.agent.DBConnectionWatchdogAgent;
 import fredboat.agent.FredBoatAgent;
+import fredboat.agent.SearchResultMigrationAgent;
 import fredboat.agent.StatsAgent;
 import fredboat.api.API;
 import fredboat.audio.player.LavalinkManager;
 import fredboat.audio.queue.MusicPersistenceHandler;
+import fredboat.audio.queue.QueueJournal;
 import fredboat.commandmeta.CommandRegistry;
 import fredboat.commandmeta.init.MainCommandInitializer;
 import fredboat.commandmeta.init.MusicCommandInitializer;
@@ -65,6 +68,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.security.auth.login.LoginException;
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
@@ -140,10 +144,19 @@ public abstract class FredBoat {
             dbManager = DatabaseManager.sqlite();
             dbManager.startup();
         }
+        if (dbManager != null) {
+            FredBoatAgent.start(new SearchResultMigrationAgent(dbManager));
+        }
 
         //Initialise event listeners
         mainEventListener = new EventListenerBoat();
         LavalinkManager.ins.start();
+        if (!LavalinkManager.ins.isEnabled()) {
+            FredBoatAgent.start(new AudioQualityAgent()); //only local players can be tuned
+        }
+        if (Config.CONFIG.getDistribution() != DistributionEnum.MUSIC) {
+            QueueJournal.ins.start(new File(MusicPersistenceHandler.DIR));
+        }
 
         //Commands
         if (Config.CONFIG.getDistribution() == DistributionEnum.DEVELOPMENT)
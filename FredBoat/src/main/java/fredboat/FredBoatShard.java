@@ -31,6 +31,7 @@ import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.LavalinkManager;
 import fredboat.audio.player.PlayerRegistry;
 import fredboat.audio.queue.MusicPersistenceHandler;
+import fredboat.audio.queue.RestoreScheduler;
 import fredboat.event.EventListenerBoat;
 import fredboat.event.EventLogger;
 import fredboat.feature.metrics.Metrics;
@@ -52,6 +53,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -117,26 +119,34 @@ public class FredBoatShard extends FredBoat {
         jdaEntityCountsShard.count(Collections.singletonList(this), true);//jda finished loading, do a single count to init values
 
 
-        if (Config.CONFIG.getNumShards() <= 10) {
-            //the current implementation of music persistence is not a good idea on big bots
-            MusicPersistenceHandler.reloadPlaylists(this);
-        }
+        MusicPersistenceHandler.reloadPlaylists(this);
 
-        //Rejoin old channels if revived
+        //Rejoin old channels if revived, paced and most listened first like restored players
+        List<RestoreScheduler.Restore> rejoins = new ArrayList<>();
         channelsToRejoin.forEach(vcid -> {
             VoiceChannel channel = readyEvent.getJDA().getVoiceChannelById(vcid);
             if (channel == null) return;
-            GuildPlayer player = PlayerRegistry.getOrCreate(channel.getGuild());
+            rejoins.add(new RestoreScheduler.Restore(channel.getGuild().getIdLong(), channel.getIdLong(),
+                    jda -> rejoin(jda, vcid)));
+        });
+        channelsToRejoin.clear();
+        if (!rejoins.isEmpty()) {
+            RestoreScheduler.ins.schedule(this, rejoins, null);
+        }
+    }
 
-            LavalinkManager.ins.openConnection(channel);
+    private static boolean rejoin(JDA jda, String vcid) {
+        VoiceChannel channel = jda.getVoiceChannelById(vcid);
+        if (channel == null) return false;
+        GuildPlayer player = PlayerRegistry.getOrCreate(channel.getGuild());
 
-            if (!LavalinkManager.ins.isEnabled()) {
-                AudioManager am = channel.getGuild().getAudioManager();
-                am.setSendingHandler(player);
-            }
-        });
+        LavalinkManager.ins.openConnection(channel);
 
-        channelsToRejoin.clear();
+        if (!LavalinkManager.ins.isEnabled()) {
+            AudioManager am = channel.getGuild().getAudioManager();
+            am.setSendingHandler(player);
+        }
+        return true;
     }
 
     private volatile Future reviveTask;
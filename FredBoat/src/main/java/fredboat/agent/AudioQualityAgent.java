@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.agent;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration.ResamplingQuality;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import fredboat.audio.player.AbstractPlayer;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trades audio fidelity for continuity while the node is under load, instead of letting every guild stutter at once.
+ * <p>
+ * When the node wide frame loss rises, fresh tracks get a larger frame buffer to ride out hiccups of the decoding
+ * threads. When the CPU of this process is saturated, fresh tracks get resampled at a lower quality, and once the
+ * lowest resampling quality is reached, which is the base quality of some distributions, they get opus encoded at a
+ * lower quality. Both are stepped back to their base values once the node has been calm for a while. Tracks that are
+ * already playing keep their settings.
+ */
+public class AudioQualityAgent extends FredBoatAgent {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioQualityAgent.class);
+
+    private static final int MAX_FRAME_BUFFER_DURATION = 5000; //milliseconds
+    private static final int FRAME_BUFFER_STEP = 1000; //milliseconds
+    private static final double LOSS_RAISE_THRESHOLD = 0.01; //ratio of lost frames
+    private static final double LOSS_CALM_THRESHOLD = 0.002;
+
+    private static final double CPU_SATURATED_THRESHOLD = 0.9;
+    private static final double CPU_CALM_THRESHOLD = 0.7;
+
+    //amount of consecutive calm runs before a setting is stepped back towards its base value
+    private static final int CALM_RUNS_TO_RECOVER = 6;
+
+    //lowest to highest
+    private static final List<ResamplingQuality> QUALITIES
+            = Arrays.asList(ResamplingQuality.LOW, ResamplingQuality.MEDIUM, ResamplingQuality.HIGH);
+    //applied below the lowest resampling quality, trades opus encoding complexity for cpu time
+    private static final int REDUCED_OPUS_QUALITY = 5;
+
+    private final AudioPlayerManager playerManager;
+    private final int baseFrameBufferDuration;
+    private final ResamplingQuality baseQuality;
+    private final int baseOpusQuality;
+
+    private int frameBufferDuration;
+    private ResamplingQuality quality;
+    private int opusQuality;
+    private double lastLost;
+    private double lastProvided;
+    private int calmLossRuns = 0;
+    private int calmCpuRuns = 0;
+
+    public AudioQualityAgent() {
+        super("audio quality", 10, TimeUnit.SECONDS);
+        this.playerManager = AbstractPlayer.getPlayerManager();
+        this.baseFrameBufferDuration = AbstractPlayer.BASE_FRAME_BUFFER_DURATION;
+        this.baseQuality = AbstractPlayer.getBaseResamplingQuality();
+        this.frameBufferDuration = baseFrameBufferDuration;
+        this.quality = baseQuality;
+        this.baseOpusQuality = playerManager.getConfiguration().getOpusEncodingQuality();
+        this.opusQuality = baseOpusQuality;
+        this.lastLost = Metrics.audioFramesLost.get();
+        this.lastProvided = Metrics.audioFramesProvided.get();
+        updateMetrics();
+    }
+
+    @Override
+    protected void doRun() {
+        double lost = Metrics.audioFramesLost.get();
+        double provided = Metrics.audioFramesProvided.get();
+        double lostDelta = lost - lastLost;
+        double total = lostDelta + (provided - lastProvided);
+        lastLost = lost;
+        lastProvided = provided;
+
+        if (total > 0) {
+            adjustFrameBuffer(lostDelta / total);
+        }
+
+        double cpu = getCpuLoad();
+        if (cpu >= 0) {
+            adjustQuality(cpu);
+        }
+        updateMetrics();
+    }
+
+    private void adjustFrameBuffer(double lossRatio) {
+        if (lossRatio > LOSS_RAISE_THRESHOLD) {
+            calmLossRuns = 0;
+            if (frameBufferDuration < MAX_FRAME_BUFFER_DURATION) {
+                int raised = Math.min(frameBufferDuration + FRAME_BUFFER_STEP, MAX_FRAME_BUFFER_DURATION);
+                log.info("Frame loss at {}%, raising the frame buffer of fresh tracks from {}ms to {}ms",
+                        String.format("%.2f", lossRatio * 100), frameBufferDuration, raised);
+                setFrameBufferDuration(raised, "up");
+            }
+        } else if (lossRatio < LOSS_CALM_THRESHOLD && frameBufferDuration > baseFrameBufferDuration) {
+            if (++calmLossRuns >= CALM_RUNS_TO_RECOVER) {
+                calmLossRuns = 0;
+                setFrameBufferDuration(Math.max(frameBufferDuration - FRAME_BUFFER_STEP, baseFrameBufferDuration), "down");
+            }
+        } else {
+            calmLossRuns = 0;
+        }
+    }
+
+    private void adjustQuality(double cpu) {
+        int current = QUALITIES.indexOf(quality);
+        int reducedOpusQuality = Math.min(REDUCED_OPUS_QUALITY, baseOpusQuality);
+        if (cpu > CPU_SATURATED_THRESHOLD) {
+            calmCpuRuns = 0;
+            if (current > 0) {
+                ResamplingQuality lowered = QUALITIES.get(current - 1);
+                log.info("CPU load at {}%, lowering the resampling quality of fresh tracks from {} to {}",
+                        Math.round(cpu * 100), quality, lowered);
+                setQuality(lowered, "down");
+            } else if (opusQuality > reducedOpusQuality) {
+                log.info("CPU load at {}%, lowering the opus encoding quality of fresh tracks from {} to {}",
+                        Math.round(cpu * 100), opusQuality, reducedOpusQuality);
+                setOpusQuality(reducedOpusQuality, "down");
+            }
+        } else if (cpu < CPU_CALM_THRESHOLD
+                && (opusQuality < baseOpusQuality || current < QUALITIES.indexOf(baseQuality))) {
+            if (++calmCpuRuns >= CALM_RUNS_TO_RECOVER) {
+                calmCpuRuns = 0;
+                //undo the steps in reverse order
+                if (opusQuality < baseOpusQuality) {
+                    setOpusQuality(baseOpusQuality, "up");
+                } else {
+                    setQuality(QUALITIES.get(current + 1), "up");
+                }
+            }
+        } else {
+            calmCpuRuns = 0;
+        }
+    }
+
+    private void setFrameBufferDuration(int duration, String direction) {
+        frameBufferDuration = duration;
+        playerManager.setFrameBufferDuration(duration);
+        Metrics.audioQualityAdjustments.labels("frame_buffer", direction).inc();
+    }
+
+    private void setQuality(ResamplingQuality quality, String direction) {
+        this.quality = quality;
+        playerManager.getConfiguration().setResamplingQuality(quality);
+        Metrics.audioQualityAdjustments.labels("resampling_quality", direction).inc();
+    }
+
+    private void setOpusQuality(int opusQuality, String direction) {
+        this.opusQuality = opusQuality;
+        playerManager.getConfiguration().setOpusEncodingQuality(opusQuality);
+        Metrics.audioQualityAdjustments.labels("opus_encoding_quality", direction).inc();
+    }
+
+    private void updateMetrics() {
+        Metrics.audioFrameBufferDuration.set(frameBufferDuration);
+        for (ResamplingQuality q : QUALITIES) {
+            Metrics.audioResamplingQuality.labels(q.name()).set(q == quality ? 1 : 0);
+        }
+        Metrics.audioOpusEncodingQuality.set(opusQuality);
+    }
+
+    /**
+     * @return the recent cpu load of this process between 0.0 and 1.0, or a negative value if not available
+     */
+    private static double getCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.agent;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import fredboat.db.DatabaseManager;
+import fredboat.db.entity.SearchResult;
+import fredboat.util.rest.SearchUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts search results stored in the Java serialized format into the current one, a batch at a time so the
+ * database doesn't notice. Rows are walked in the order of their keys; once the end of the table is reached this agent
+ * is done and stays idle.
+ */
+public class SearchResultMigrationAgent extends FredBoatAgent {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchResultMigrationAgent.class);
+
+    private static final int BATCH_SIZE = 250;
+
+    private final DatabaseManager dbManager;
+    private final AudioPlayerManager playerManager;
+
+    //key of the last row looked at
+    private String lastProvider = "";
+    private String lastSearchTerm = "";
+
+    private boolean done = false;
+    private long checked = 0;
+    private long migrated = 0;
+    private long bytesBefore = 0;
+    private long bytesAfter = 0;
+
+    public SearchResultMigrationAgent(DatabaseManager dbManager) {
+        super("search result migration", 5, TimeUnit.SECONDS);
+        this.dbManager = dbManager;
+        this.playerManager = SearchUtil.getPlayerManager();
+    }
+
+    @Override
+    protected void doRun() {
+        if (done || !dbManager.isAvailable()) {
+            return;
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            List<SearchResult> batch = em.createQuery("SELECT sr FROM SearchResult sr "
+                    + "WHERE sr.searchResultId.provider > :provider "
+                    + "OR (sr.searchResultId.provider = :provider AND sr.searchResultId.searchTerm > :searchTerm) "
+                    + "ORDER BY sr.searchResultId.provider, sr.searchResultId.searchTerm", SearchResult.class)
+                    .setParameter("provider", lastProvider)
+                    .setParameter("searchTerm", lastSearchTerm)
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList();
+
+            for (SearchResult searchResult : batch) {
+                checked++;
+                if (searchResult.isLegacyFormat()) {
+                    int before = searchResult.getSerializedSize();
+                    try {
+                        if (searchResult.migrateFormat(playerManager)) {
+                            migrated++;
+                            bytesBefore += before;
+                            bytesAfter += searchResult.getSerializedSize();
+                        }
+                    } catch (Exception e) {
+                        log.warn("Failed to migrate search result {} {}, leaving it alone",
+                                searchResult.getProvider(), searchResult.getSearchTerm(), e);
+                    }
+                }
+            }
+            em.getTransaction().commit(); //the migrated results are managed, so they are written now
+
+            if (batch.isEmpty()) {
+                done = true;
+                log.info("Search result migration done. Checked {} results, migrated {}, {} bytes before, {} after",
+                        checked, migrated, bytesBefore, bytesAfter);
+                return;
+            }
+            SearchResult last = batch.get(batch.size() - 1);
+            lastProvider = last.getProvider().name();
+            lastSearchTerm = last.getSearchTerm();
+            log.debug("Search result migration checked {}, migrated {} results so far", checked, migrated);
+        } catch (PersistenceException e) {
+            log.error("Failed to migrate a batch of search results after {} {}, retrying later",
+                    lastProvider, lastSearchTerm, e);
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -25,7 +25,6 @@
 
 package fredboat.audio.player;
 
-import com.google.common.collect.Lists;
 import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
@@ -42,8 +41,12 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import com.sedmelluq.discord.lavaplayer.track.TrackMarker;
 import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
 import fredboat.Config;
+import fredboat.FredBoat;
+import fredboat.audio.queue.AbstractTrackProvider;
 import fredboat.audio.queue.AudioTrackContext;
+import fredboat.audio.queue.EncodedAudioTrackContext;
 import fredboat.audio.queue.ITrackProvider;
+import fredboat.audio.queue.RepeatMode;
 import fredboat.audio.queue.SplitAudioTrackContext;
 import fredboat.audio.queue.TrackEndMarkerHandler;
 import fredboat.audio.source.HttpSourceManager;
@@ -60,33 +63,39 @@ import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements AudioSendHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(AbstractPlayer.class);
 
+    public static final int BASE_FRAME_BUFFER_DURATION = 1000; //milliseconds
+
     private static AudioPlayerManager playerManager;
-    protected final IPlayer player;
+    protected volatile IPlayer player; //may be swapped for a player that preloaded the next track
     ITrackProvider audioTrackProvider;
     private AudioFrame lastFrame = null;
     protected AudioTrackContext context;
     private final AudioLossCounter audioLossCounter = new AudioLossCounter();
+    @Nullable
+    private final TrackPreloader preloader;
 
     protected Consumer<AudioTrackContext> onPlayHook;
     protected Consumer<Throwable> onErrorHook;
 
-    private static final int MAX_HISTORY_SIZE = 20;
     private AudioTrackContext queuedTrackInHistory = null;
-    protected ConcurrentLinkedQueue<AudioTrackContext> historyQueue = new ConcurrentLinkedQueue<>();
+    private final TrackHistory history = new TrackHistory(Config.CONFIG.getTrackHistorySize());
 
     @SuppressWarnings("LeakingThisInConstructor")
     AbstractPlayer(String guildId) {
         initAudioPlayerManager();
         player = LavalinkManager.ins.createPlayer(guildId);
+        //preloading relies on the frame buffer of a local standby player
+        preloader = !LavalinkManager.ins.isEnabled() && Config.CONFIG.getTrackPreloadMargin() > 0
+                ? new TrackPreloader() : null;
 
         player.addListener(this);
     }
@@ -96,16 +105,12 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
             playerManager = new DefaultAudioPlayerManager();
             registerSourceManagers(playerManager);
 
-            //Patrons and development get higher quality
-            AudioConfiguration.ResamplingQuality quality = AudioConfiguration.ResamplingQuality.LOW;
-            if (Config.CONFIG.getDistribution() == DistributionEnum.PATRON || Config.CONFIG.getDistribution() == DistributionEnum.DEVELOPMENT)
-                quality = AudioConfiguration.ResamplingQuality.MEDIUM;
-
-            playerManager.getConfiguration().setResamplingQuality(quality);
+            //both may be adjusted at runtime by the AudioQualityAgent
+            playerManager.getConfiguration().setResamplingQuality(getBaseResamplingQuality());
             if (!LavalinkManager.ins.isEnabled()) {
                 playerManager.enableGcMonitoring(); //we are playing tracks locally
             }
-            playerManager.setFrameBufferDuration(1000);
+            playerManager.setFrameBufferDuration(BASE_FRAME_BUFFER_DURATION);
 
             if (Config.CONFIG.getDistribution() != DistributionEnum.DEVELOPMENT && Config.CONFIG.isLavaplayerNodesEnabled()) {
                 playerManager.useRemoteNodes(Config.CONFIG.getLavaplayerNodes());
@@ -115,6 +120,16 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         }
     }
 
+    /**
+     * @return the resampling quality used for tracks while the node is not under load
+     */
+    public static AudioConfiguration.ResamplingQuality getBaseResamplingQuality() {
+        //Patrons and development get higher quality
+        if (Config.CONFIG.getDistribution() == DistributionEnum.PATRON || Config.CONFIG.getDistribution() == DistributionEnum.DEVELOPMENT)
+            return AudioConfiguration.ResamplingQuality.MEDIUM;
+        return AudioConfiguration.ResamplingQuality.LOW;
+    }
+
     public static AudioPlayerManager registerSourceManagers(AudioPlayerManager mng) {
         mng.registerSourceManager(new PlaylistImportSourceManager());
         //Determine which Source managers are enabled
@@ -169,6 +184,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         if (pause) {
             player.setPaused(true);
+            audioLossCounter.endStreak();
         } else {
             player.setPaused(false);
             play();
@@ -182,6 +198,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         log.debug("pause()");
 
         player.setPaused(true);
+        audioLossCounter.endStreak();
     }
 
     /**
@@ -191,6 +208,9 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         log.debug("stop()");
 
         audioTrackProvider.clear();
+        if (preloader != null) {
+            preloader.cancel();
+        }
         stopTrack();
     }
 
@@ -212,6 +232,17 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         context = null;
         player.stopTrack();
+        audioLossCounter.endStreak();
+    }
+
+    /**
+     * Call this whenever the queue, the shuffle or the repeat mode has been changed, so that the preloaded next track
+     * gets checked again, and replaced if it isn't the next one anymore.
+     */
+    public void invalidatePreload() {
+        if (preloader != null) {
+            preloader.invalidate();
+        }
     }
 
     public boolean isQueueEmpty() {
@@ -220,24 +251,27 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         return player.getPlayingTrack() == null && audioTrackProvider.isEmpty();
     }
 
+    /**
+     * @return the tracks in the requested range of the history, most recently played first. Empty if the history
+     * holds less than end tracks.
+     */
     public List<AudioTrackContext> getTracksInHistory(int start, int end) {
         start = Math.max(start, 0);
         end = Math.max(end, start);
-        List<AudioTrackContext> historyList = new ArrayList<>(historyQueue);
 
-        if (historyList.size() >= end) {
-            return Lists.reverse(new ArrayList<>(historyQueue)).subList(start, end);
+        if (history.size() >= end) {
+            return history.getMostRecent(start, end);
         } else {
             return new ArrayList<>();
         }
     }
 
     public int getTrackCountInHistory() {
-        return historyQueue.size();
+        return history.size();
     }
 
     public boolean isHistoryQueueEmpty() {
-        return historyQueue.isEmpty();
+        return history.isEmpty();
     }
 
     public AudioTrackContext getPlayingTrack() {
@@ -282,6 +316,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
         log.debug("onTrackEnd({} {} {}) called", track.getInfo().title, endReason.name(), endReason.mayStartNext);
+        audioLossCounter.endStreak();
 
         if (endReason == AudioTrackEndReason.FINISHED || endReason == AudioTrackEndReason.STOPPED) {
             updateHistoryQueue();
@@ -311,15 +346,80 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         if (atc != null) {
             queuedTrackInHistory = atc;
-            playTrack(atc);
+            IPlayer preloadedPlayer = preloader != null ? preloader.take(atc) : null;
+            if (preloadedPlayer != null) {
+                handOff(atc, preloadedPlayer);
+            } else {
+                playTrack(atc);
+            }
+        } else if (preloader != null) {
+            preloader.cancel();
+        }
+    }
+
+    //switch over to a standby player that has already started playing the provided track
+    private void handOff(AudioTrackContext trackContext, IPlayer next) {
+        log.debug("handOff({})", trackContext.getEffectiveTitle());
+
+        if (trackContext instanceof EncodedAudioTrackContext) {
+            //keep the decoded track, like playTrack does, instead of decoding it whenever someone asks for it
+            ((EncodedAudioTrackContext) trackContext).decode();
+        }
+
+        IPlayer previous = player;
+        previous.removeListener(this);
+        next.setVolume(previous.getVolume());
+        next.addListener(this);
+        context = trackContext;
+        player = next;
+        next.setPaused(previous.isPaused());
+        //noinspection ConstantConditions only called when preloading
+        preloader.recycle(previous);
+
+        //the track was started while no one was listening to the standby player
+        onTrackStart((AudioPlayer) null, next.getPlayingTrack());
+        if (onPlayHook != null) onPlayHook.accept(trackContext);
+    }
+
+    //start preloading the next track when the playing one is about to end. This runs on the audio send thread, so it
+    // only checks whether it is time to preload, the preloading itself happens on another thread.
+    private void checkPreload() {
+        AudioTrackContext playing = context;
+        //noinspection ConstantConditions only called when preloading
+        if (playing == null || playing.isStream() || preloader.hasAttempted(playing)
+                || player.getPlayingTrack() == null) {
+            return;
+        }
+        long remaining = playing.getStartPosition() + playing.getEffectiveDuration() - player.getTrackPosition();
+        if (remaining > Config.CONFIG.getTrackPreloadMargin()) {
+            return;
+        }
+
+        preloader.markAttempted(playing);
+        FredBoat.executor.execute(() -> preloadNext(playing));
+    }
+
+    private void preloadNext(AudioTrackContext playing) {
+        if (context != playing) {
+            return; //the track ended in the meantime
+        }
+        try {
+            AudioTrackContext next = null;
+            if (!(audioTrackProvider instanceof AbstractTrackProvider)
+                    || ((AbstractTrackProvider) audioTrackProvider).getRepeatMode() != RepeatMode.SINGLE) {
+                next = audioTrackProvider.peek(); //repeating a single track plays a fresh clone of it instead
+            }
+            //noinspection ConstantConditions only called when preloading
+            preloader.preload(next);
+        } catch (Exception e) {
+            log.warn("Failed to preload the track following {}", playing.getEffectiveTitle(), e);
         }
     }
 
     private void updateHistoryQueue() {
-        if (historyQueue.size() == MAX_HISTORY_SIZE) {
-            historyQueue.poll();
+        if (queuedTrackInHistory != null) {
+            history.add(queuedTrackInHistory);
         }
-        historyQueue.add(queuedTrackInHistory);
     }
 
     /**
@@ -330,6 +430,10 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
     protected void playTrack(AudioTrackContext trackContext, boolean... silent) {
         log.debug("playTrack({})", trackContext.getEffectiveTitle());
 
+        if (trackContext instanceof EncodedAudioTrackContext) {
+            //keep the decoded track, the player and the position handling below need the same instance
+            ((EncodedAudioTrackContext) trackContext).decode();
+        }
         context = trackContext;
         player.playTrack(trackContext.getTrack());
         trackContext.getTrack().setPosition(trackContext.getStartPosition());
@@ -359,6 +463,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
     @Override
     public byte[] provide20MsAudio() {
+        //handed over without copying, JDA only reads it before asking for the next frame
         return lastFrame.data;
     }
 
@@ -368,10 +473,16 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         lastFrame = lavaplayerPlayer.provide();
 
         if(lastFrame == null) {
-            audioLossCounter.onLoss();
+            //no frames are expected while idling or paused, only count actual gaps in the audio
+            if (lavaplayerPlayer.getPlayingTrack() != null && !lavaplayerPlayer.isPaused()) {
+                audioLossCounter.onLoss();
+            }
             return false;
         } else {
             audioLossCounter.onSuccess();
+            if (preloader != null) {
+                checkPreload();
+            }
             return true;
         }
     }
@@ -25,56 +25,177 @@
 
 package fredboat.audio.player;
 
+import fredboat.feature.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts provided and lost audio frames of a player in per second buckets over a sliding window of one minute, and
+ * keeps track of consecutive losses. Counts are also added to node wide prometheus metrics.
+ * <p>
+ * This sits on the audio send path, which runs every 20ms for every player, so recording a frame does not allocate or
+ * lock. Each bucket is a single long packing the second it belongs to with its counts, so readers never see a half
+ * reset bucket. Frames are expected to be recorded by a single thread (the audio send thread of the guild), readers
+ * may be any thread. A streak also ends when the player stops, pauses or its track ends, see {@link #endStreak()}.
+ */
 public class AudioLossCounter {
 
     public static final int EXPECTED_PACKET_COUNT_PER_MIN = (60 * 1000) / 20; // 20ms packets
+    public static final int WINDOW_SECONDS = 60;
+
+    //the bucket of the current second is still being filled, keep it in addition to the full window
+    private static final int BUCKET_COUNT = WINDOW_SECONDS + 1;
+    private static final long COUNT_MASK = 0xFFFF;
+    private static final int LOSS_SHIFT = 16;
+    private static final int SECOND_SHIFT = 32;
 
-    private long curMinute = 0;
-    private int curLoss = 0;
-    private int curSucc = 0;
+    // [second (32 bits)][lost (16 bits)][provided (16 bits)]
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final long startNanos = System.nanoTime();
 
-    private int lastLoss = 0;
-    private int lastSucc = 0;
+    //ended by the player from other threads
+    private final AtomicInteger currentStreak = new AtomicInteger();
+    //only written by the recording thread
+    private volatile int longestStreak = 0;
 
     AudioLossCounter() {
     }
 
     void onLoss() {
-        checkTime();
-        curLoss++;
+        record(1L << LOSS_SHIFT);
+        int streak = currentStreak.incrementAndGet();
+        if (streak > longestStreak) {
+            longestStreak = streak;
+        }
+        Metrics.audioFramesLost.inc();
     }
 
     void onSuccess() {
-        checkTime();
-        curSucc++;
+        record(1L);
+        endStreak();
+        Metrics.audioFramesProvided.inc();
     }
 
+    /**
+     * Ends the current loss streak, if there is one. Called when a frame is provided, and by the player when it stops,
+     * pauses or its track ends, so a streak doesn't carry over into whatever is played next.
+     */
+    void endStreak() {
+        int streak = currentStreak.getAndSet(0);
+        if (streak > 0) {
+            Metrics.audioFrameLossStreaks.observe(streak);
+        }
+    }
+
+    /**
+     * @return lost frames during the last full minute
+     */
     public int getLastMinuteLoss() {
-        return lastLoss;
+        return getLoss(WINDOW_SECONDS);
     }
 
+    /**
+     * @return provided frames during the last full minute
+     */
     public int getLastMinuteSuccess() {
-        return lastSucc;
+        return getSuccess(WINDOW_SECONDS);
+    }
+
+    /**
+     * @param seconds amount of full seconds to look back, capped at {@link #WINDOW_SECONDS}
+     * @return lost frames during those seconds
+     */
+    public int getLoss(int seconds) {
+        return sum(seconds, LOSS_SHIFT);
+    }
+
+    /**
+     * @param seconds amount of full seconds to look back, capped at {@link #WINDOW_SECONDS}
+     * @return provided frames during those seconds
+     */
+    public int getSuccess(int seconds) {
+        return sum(seconds, 0);
+    }
+
+    /**
+     * @return the highest amount of frames lost within a single second during the last full minute
+     */
+    public int getWorstSecondLoss() {
+        int current = currentSecond();
+        int worst = 0;
+        for (int second = current - WINDOW_SECONDS; second < current; second++) {
+            worst = Math.max(worst, count(second, LOSS_SHIFT));
+        }
+        return worst;
+    }
+
+    /**
+     * @return amount of frames that have been lost in a row right now
+     */
+    public int getCurrentLossStreak() {
+        return currentStreak.get();
     }
 
-    private void checkTime() {
-        long actualMinute = System.currentTimeMillis() / 60000;
+    /**
+     * @return the highest amount of frames lost in a row since this counter was created
+     */
+    public int getLongestLossStreak() {
+        return longestStreak;
+    }
+
+    private void record(long increment) {
+        int second = currentSecond();
+        int index = second % BUCKET_COUNT;
+        long bucket;
+        long updated;
+        do {
+            bucket = buckets.get(index);
+            if ((int) (bucket >>> SECOND_SHIFT) == second) {
+                updated = bucket + increment;
+            } else {
+                //the bucket still holds the counts of an older second, start over
+                updated = ((long) second << SECOND_SHIFT) | increment;
+            }
+        } while (!buckets.compareAndSet(index, bucket, updated));
+    }
 
-        if(curMinute != actualMinute) {
-            lastLoss = curLoss;
-            lastSucc = curSucc;
-            curLoss = 0;
-            curSucc = 0;
-            curMinute = actualMinute;
+    //sums up the full seconds, the current one is excluded as it is incomplete
+    private int sum(int seconds, int shift) {
+        int current = currentSecond();
+        int sum = 0;
+        for (int second = current - Math.min(seconds, WINDOW_SECONDS); second < current; second++) {
+            sum += count(second, shift);
         }
+        return sum;
+    }
+
+    private int count(int second, int shift) {
+        if (second < 0) {
+            return 0;
+        }
+        long bucket = buckets.get(second % BUCKET_COUNT);
+        if ((int) (bucket >>> SECOND_SHIFT) != second) {
+            return 0; //nothing recorded during that second
+        }
+        return (int) ((bucket >>> shift) & COUNT_MASK);
+    }
+
+    private int currentSecond() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
     }
 
     @Override
     public String toString() {
+        int lastLoss = getLastMinuteLoss();
+        int lastSucc = getLastMinuteSuccess();
         return "AudioLossCounter{" +
                 "lastLoss=" + lastLoss +
                 ", lastSucc=" + lastSucc +
                 ", total=" + (lastSucc + lastLoss) +
+                ", worstSecondLoss=" + getWorstSecondLoss() +
+                ", longestLossStreak=" + longestStreak +
                 '}';
     }
 }
@@ -26,12 +26,14 @@
 package fredboat.audio.player;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import fredboat.FredBoat;
 import fredboat.audio.queue.AbstractTrackProvider;
 import fredboat.audio.queue.AudioLoader;
 import fredboat.audio.queue.AudioTrackContext;
 import fredboat.audio.queue.IdentifierContext;
+import fredboat.audio.queue.QueueJournal;
 import fredboat.audio.queue.RepeatMode;
 import fredboat.audio.queue.SimpleTrackProvider;
 import fredboat.command.music.control.VoteSkipCommand;
@@ -44,6 +46,7 @@ import fredboat.feature.I18n;
 import fredboat.messaging.CentralMessaging;
 import fredboat.perms.PermissionLevel;
 import fredboat.perms.PermsUtil;
+import fredboat.util.rest.YoutubeMetadataCache;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.Guild;
@@ -89,7 +92,7 @@ public class GuildPlayer extends AbstractPlayer {
             AudioManager manager = guild.getAudioManager();
             manager.setSendingHandler(this);
         }
-        audioTrackProvider = new SimpleTrackProvider();
+        audioTrackProvider = new SimpleTrackProvider(QueueJournal.ins, guildId);
         audioLoader = new AudioLoader(audioTrackProvider, getPlayerManager(), this);
     }
 
@@ -187,6 +190,16 @@ public class GuildPlayer extends AbstractPlayer {
             joinChannel(member);
         }
         audioTrackProvider.add(atc);
+        invalidatePreload();
+        play();
+    }
+
+    /**
+     * Queues the tracks without joining anyone's channel, for restoring a player
+     */
+    public void queueAll(Collection<AudioTrackContext> tracks) {
+        audioTrackProvider.addAll(tracks);
+        invalidatePreload();
         play();
     }
 
@@ -321,6 +334,17 @@ public class GuildPlayer extends AbstractPlayer {
         return getJda().getGuildById(guildId);
     }
 
+    public long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return id of the text channel this player was last used from, the channel may not exist anymore
+     */
+    public long getCurrentTCId() {
+        return currentTCId;
+    }
+
     public RepeatMode getRepeatMode() {
         if (audioTrackProvider instanceof AbstractTrackProvider)
             return ((AbstractTrackProvider) audioTrackProvider).getRepeatMode();
@@ -334,6 +358,8 @@ public class GuildPlayer extends AbstractPlayer {
     public void setRepeatMode(RepeatMode repeatMode) {
         if (audioTrackProvider instanceof AbstractTrackProvider) {
             ((AbstractTrackProvider) audioTrackProvider).setRepeatMode(repeatMode);
+            QueueJournal.ins.settingsChanged(guildId, repeatMode, isShuffle());
+            invalidatePreload();
         } else {
             throw new UnsupportedOperationException("Can't repeat " + audioTrackProvider.getClass());
         }
@@ -342,6 +368,8 @@ public class GuildPlayer extends AbstractPlayer {
     public void setShuffle(boolean shuffle) {
         if (audioTrackProvider instanceof AbstractTrackProvider) {
             ((AbstractTrackProvider) audioTrackProvider).setShuffle(shuffle);
+            QueueJournal.ins.settingsChanged(guildId, getRepeatMode(), shuffle);
+            invalidatePreload();
         } else {
             throw new UnsupportedOperationException("Can't shuffle " + audioTrackProvider.getClass());
         }
@@ -350,6 +378,7 @@ public class GuildPlayer extends AbstractPlayer {
     public void reshuffle() {
         if (audioTrackProvider instanceof AbstractTrackProvider) {
             ((AbstractTrackProvider) audioTrackProvider).reshuffle();
+            invalidatePreload();
         } else {
             throw new UnsupportedOperationException("Can't reshuffle " + audioTrackProvider.getClass());
         }
@@ -369,6 +398,19 @@ public class GuildPlayer extends AbstractPlayer {
         return shard.getJda().getTextChannelById(currentTCId);
     }
 
+    /**
+     * @return ids of the playing and queued tracks that were added by the provided user
+     */
+    public List<Long> getTrackIdsByUser(long userId) {
+        List<Long> result = new ArrayList<>();
+        AudioTrackContext playing = player.getPlayingTrack() != null ? context : null;
+        if (playing != null && playing.getUserId() == userId) {
+            result.add(playing.getTrackId());
+        }
+        result.addAll(audioTrackProvider.getTrackIdsByUser(userId));
+        return result;
+    }
+
     //Success, fail message
     public Pair<Boolean, String> canMemberSkipTracks(Member member, Collection<Long> trackIds) {
         if (PermsUtil.checkPerms(PermissionLevel.DJ, member)) {
@@ -423,6 +465,7 @@ public class GuildPlayer extends AbstractPlayer {
         }
 
         audioTrackProvider.removeAllById(toRemove);
+        invalidatePreload();
 
         if (skipCurrentTrack) {
             skip();
@@ -432,6 +475,10 @@ public class GuildPlayer extends AbstractPlayer {
     @Override
     public void onTrackStart(AudioPlayer player, AudioTrack track) {
         voteSkipCleanup();
+        //the now playing embed shows these, fetch them before anyone asks
+        if (track instanceof YoutubeAudioTrack) {
+            YoutubeMetadataCache.ins.prewarm(guildId, track.getIdentifier());
+        }
         super.onTrackStart(player, track);
     }
 
@@ -450,8 +497,15 @@ public class GuildPlayer extends AbstractPlayer {
         return shard.getJda();
     }
 
+    @Override
+    public void stop() {
+        audioLoader.cancelStreaming();
+        super.stop();
+    }
+
     @Override
     void destroy() {
+        audioLoader.cancelStreaming();
         audioTrackProvider.clear();
         super.destroy();
         log.info("Player for " + guildId + " was destroyed.");
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import fredboat.audio.queue.AudioTrackContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recently played tracks of a player, kept in a ring buffer of fixed capacity. Once full, each added track
+ * replaces the oldest one.
+ * <p>
+ * Tracks are only ever added by the player's own event handling, so there is a single writer. Reading is lock free:
+ * readers check after reading whether the writer may have overwritten any of the slots they read, and try again if
+ * so.
+ */
+class TrackHistory {
+
+    private final int capacity;
+    private final AtomicReferenceArray<AudioTrackContext> slots;
+    //amount of tracks ever added. claimed is raised before a slot is written, added after
+    private volatile long claimed = 0;
+    private volatile long added = 0;
+
+    TrackHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity needs to be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Must not be called concurrently
+     */
+    void add(AudioTrackContext atc) {
+        long count = added;
+        claimed = count + 1;
+        slots.set((int) (count % capacity), atc);
+        added = count + 1;
+    }
+
+    int size() {
+        return (int) Math.min(added, capacity);
+    }
+
+    boolean isEmpty() {
+        return added == 0;
+    }
+
+    /**
+     * @param start inclusive, 0 being the most recently added track
+     * @param end   exclusive
+     * @return the tracks in the requested range, most recent first. Positions out of range are left out.
+     */
+    List<AudioTrackContext> getMostRecent(int start, int end) {
+        while (true) {
+            long before = added;
+            int from = Math.max(start, 0);
+            int to = (int) Math.min(end, Math.min(before, capacity));
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+
+            List<AudioTrackContext> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                long position = before - 1 - i;
+                result.add(slots.get((int) (position % capacity)));
+            }
+
+            //the oldest position we read is still intact, if the writer hasn't started overwriting it
+            long oldestRead = before - to;
+            if (oldestRead >= claimed - capacity) {
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import fredboat.audio.queue.AudioTrackContext;
+import fredboat.audio.queue.SplitAudioTrackContext;
+import fredboat.feature.metrics.Metrics;
+import lavalink.client.player.IPlayer;
+import lavalink.client.player.LavaplayerPlayerWrapper;
+import lavalink.client.player.event.AudioEventAdapterWrapped;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Starts the next track of a player on a paused standby player shortly before the current track ends. Lavaplayer
+ * resolves the track, opens its stream and fills the frame buffer of the standby player in the background, so when
+ * the current track ends the standby player can take over with audio ready to be sent.
+ * <p>
+ * Whether the preloaded track really is the next one is checked at the time of the handoff. If the queue, the shuffle
+ * or the repeat mode changed in the meantime, the preloaded track is thrown away and the next track is started cold.
+ * The same happens if the preloaded track failed to load or ended, so that the cold start reports the error.
+ * <p>
+ * Only used when playing tracks locally.
+ */
+class TrackPreloader {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(TrackPreloader.class);
+
+    @Nullable
+    private IPlayer standby = null;
+    @Nullable
+    private AudioTrackContext preloaded = null;
+    //id of the playing track that we last attempted to preload the next track for
+    private volatile long attemptedFor = -1;
+    //the instance playing on the standby player, and whether it failed or ended since
+    @Nullable
+    private volatile AudioTrack standbyTrack = null;
+    private volatile boolean standbyFailed = false;
+
+    //no one else listens to the standby player, so this is the only place its failures show up
+    private final AudioEventAdapterWrapped standbyListener = new AudioEventAdapterWrapped() {
+        @Override
+        public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+            if (track == standbyTrack) {
+                standbyFailed = true;
+            }
+        }
+
+        @Override
+        public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
+            if (track == standbyTrack) {
+                log.debug("Preloaded track {} failed", track.getIdentifier(), exception);
+                standbyFailed = true;
+            }
+        }
+    };
+
+    /**
+     * @return true if a preload has already been attempted while the provided track is playing
+     */
+    boolean hasAttempted(AudioTrackContext playing) {
+        return attemptedFor == playing.getTrackId();
+    }
+
+    /**
+     * Keeps further checks from attempting to preload again while the provided track is playing, until
+     * {@link #invalidate()} is called
+     */
+    void markAttempted(AudioTrackContext playing) {
+        attemptedFor = playing.getTrackId();
+    }
+
+    /**
+     * Starts loading the next track on the standby player. May block, don't call this on the audio send thread.
+     *
+     * @param next the track expected to be played after the current one, may be null if there is none
+     */
+    synchronized void preload(@Nullable AudioTrackContext next) {
+        if (next == null || next instanceof SplitAudioTrackContext) {
+            discard(); //split tracks need to be started at their own position
+            return;
+        }
+        if (preloaded != null && preloaded.getTrackId() == next.getTrackId()) {
+            return; //already preloading this one
+        }
+        discard();
+
+        if (standby == null) {
+            standby = new LavaplayerPlayerWrapper(AbstractPlayer.getPlayerManager().createPlayer());
+            standby.addListener(standbyListener);
+        }
+        //a paused player keeps filling its frame buffer, it just doesn't hand out any frames
+        standby.setPaused(true);
+        //the queued instance stays untouched, so it can still be played cold if this preload is thrown away
+        AudioTrack track = next.getTrack().makeClone();
+        standbyFailed = false;
+        standbyTrack = track;
+        standby.playTrack(track);
+        preloaded = next;
+        log.debug("Preloading {}", next.getEffectiveTitle());
+    }
+
+    /**
+     * @param next the track that is about to be played
+     * @return the standby player, already playing the provided track, or null if it wasn't preloaded or the preload
+     * failed. The caller takes ownership of the returned player.
+     */
+    @Nullable
+    synchronized IPlayer take(AudioTrackContext next) {
+        if (preloaded == null || preloaded.getTrackId() != next.getTrackId() || standby == null) {
+            discard();
+            return null;
+        }
+        if (standbyFailed || standby.getPlayingTrack() == null) {
+            //started cold instead, which reports the failure as usual
+            log.debug("Preloading {} failed", preloaded.getEffectiveTitle());
+            discard();
+            return null;
+        }
+        Metrics.trackPreloads.labels("hit").inc();
+        IPlayer result = standby;
+        result.removeListener(standbyListener);
+        standby = null;
+        standbyTrack = null;
+        preloaded = null;
+        return result;
+    }
+
+    /**
+     * Hands a player that is no longer needed back to be used as the next standby player
+     */
+    synchronized void recycle(IPlayer player) {
+        player.stopTrack();
+        if (standby == null) {
+            player.addListener(standbyListener);
+            standby = player;
+        }
+    }
+
+    /**
+     * Makes the next preload check run again for the playing track. If the next track has changed by then, the
+     * preloaded one is thrown away.
+     */
+    void invalidate() {
+        attemptedFor = -1;
+    }
+
+    /**
+     * Throws away the preloaded track, if there is one
+     */
+    synchronized void cancel() {
+        discard();
+    }
+
+    private void discard() {
+        if (preloaded != null) {
+            Metrics.trackPreloads.labels("miss").inc();
+            log.debug("Discarding preloaded track {}", preloaded.getEffectiveTitle());
+            preloaded = null;
+        }
+        standbyTrack = null;
+        if (standby != null) {
+            standby.stopTrack();
+        }
+    }
+}
@@ -31,6 +31,7 @@ import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.FredBoat;
 import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.source.PlaylistImportSourceManager;
 import fredboat.audio.source.PlaylistImporter;
@@ -38,35 +39,59 @@ import fredboat.audio.source.SpotifyPlaylistSourceManager;
 import fredboat.feature.metrics.Metrics;
 import fredboat.feature.togglz.FeatureFlags;
 import fredboat.messaging.CentralMessaging;
+import fredboat.util.SingleFlight;
 import fredboat.util.TextUtils;
 import fredboat.util.ratelimit.Ratelimiter;
-import fredboat.util.rest.YoutubeAPI;
+import fredboat.util.rest.QueryNormalizer;
+import fredboat.util.rest.YoutubeMetadataCache;
 import fredboat.util.rest.YoutubeVideo;
 import net.dv8tion.jda.core.MessageBuilder;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class AudioLoader implements AudioLoadResultHandler {
+public class AudioLoader {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(AudioLoader.class);
 
     //Matches a timestamp and the description
     private static final Pattern SPLIT_DESCRIPTION_PATTERN = Pattern.compile("(.*?)[( \\[]*((?:\\d?\\d:)?\\d?\\d:\\d\\d)[) \\]]*(.*)");
     private static final int QUEUE_TRACK_LIMIT = 10000;
+    //playlists with more tracks than this are queued in their encoded form, see EncodedAudioTrackContext
+    private static final int ENCODED_PLAYLIST_THRESHOLD = 100;
+    //how long the tracks of a load are held back for the playlist lookup, see lookUpSlowLoadingPlaylist
+    private static final long PLAYLIST_LOOKUP_DEADLINE_MILLIS = 5000;
+
+    private static final ScheduledExecutorService LOOKUP_DEADLINES = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "playlist-lookup-deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final SingleFlight<String, LoadResult> LOADS = new SingleFlight<>("load", LoadResult::copy);
 
     private final ITrackProvider trackProvider;
     private final AudioPlayerManager playerManager;
     private final GuildPlayer gplayer;
-    private final ConcurrentLinkedQueue<IdentifierContext> identifierQueue = new ConcurrentLinkedQueue<>();
-    private IdentifierContext context = null;
-    private volatile boolean isLoading = false;
+    //loads that have not been applied to the queue yet, in the order they were requested. Guarded by itself
+    private final ArrayDeque<PendingLoad> pending = new ArrayDeque<>();
+    //whether a thread is applying outcomes right now, guarded by the pending loads
+    private boolean draining = false;
 
     public AudioLoader(ITrackProvider trackProvider, AudioPlayerManager playerManager, GuildPlayer gplayer) {
         this.trackProvider = trackProvider;
@@ -74,68 +99,306 @@ public class AudioLoader implements AudioLoadResultHandler {
         this.gplayer = gplayer;
     }
 
+    /**
+     * Loads an identifier and queues its tracks. Loads run concurrently with the other loads of this guild, see
+     * {@link LoadScheduler}, but their tracks are queued in the order the identifiers were requested.
+     */
     public void loadAsync(IdentifierContext ic) {
+        PendingLoad load = new PendingLoad(ic);
+        synchronized (pending) {
+            pending.add(load);
+        }
+        //outside of the lock, submitting may start and complete loads of other guilds, which lock their own pending loads
+        load.ticket = LoadScheduler.ins.submit(gplayer.getGuildId(), () -> load(load));
+        lookUpSlowLoadingPlaylist(load);
+    }
+
+    /**
+     * Started by the {@link LoadScheduler}.
+     *
+     * @return completed once the load is done
+     */
+    private CompletableFuture<?> load(PendingLoad load) {
+        IdentifierContext ic = load.ic;
+        try {
+            if (ic.isCancelled()) {
+                publish(load, () -> {}, true);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            if (gplayer.getTrackCount() >= QUEUE_TRACK_LIMIT) {
+                publish(load, () -> ic.replyWithName(ic.i18nFormat("loadQueueTrackLimit", QUEUE_TRACK_LIMIT)), true);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            SpotifyPlaylistSourceManager spotify = playerManager.source(SpotifyPlaylistSourceManager.class);
+            if (spotify != null && !ic.isSplit() && spotify.isPlaylist(ic.identifier)) {
+                return loadStreaming(spotify, load);
+            }
+
+            //urls pointing to the same youtube video or playlist are loaded as the same identifier
+            String identifier = QueryNormalizer.canonicalIdentifier(ic.identifier);
+            Metrics.queryNormalizations.labels("identifier", identifier.equals(ic.identifier) ? "unchanged" : "changed").inc();
 
-        if (ratelimitIfSlowLoadingPlaylistAndAnnounce(ic)) {
-            identifierQueue.add(ic);
-            if (!isLoading) {
-                loadNextAsync();
+            //tracks resolved recently, by this or any other guild, don't need to be resolved again
+            AudioTrack cached = ResolvedTrackCache.ins.get(playerManager, identifier);
+            if (cached != null) {
+                publish(load, () -> trackLoaded(ic, cached), true);
+                return CompletableFuture.completedFuture(null);
             }
+
+            //guilds loading the same identifier at the same time share a single load
+            return LOADS.executeAsync(identifier, () -> LoadResult.load(playerManager, identifier)
+                    .whenComplete((result, t) -> {
+                        if (result != null && result.getTrack() != null) {
+                            ResolvedTrackCache.ins.put(playerManager, identifier, result.getTrack());
+                        }
+                    }))
+                    .whenComplete((result, t) -> {
+                        if (t != null) {
+                            publish(load, () -> handleThrowable(ic, t), true);
+                        } else {
+                            result.deliverTo(new Delivery(load));
+                        }
+                    });
+        } catch (Throwable th) {
+            publish(load, () -> handleThrowable(ic, th), true);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
-    private void loadNextAsync() {
+    /**
+     * Applies an outcome of a load once all loads requested before it have been applied, so that tracks are queued in
+     * the order they were requested no matter which load finishes first. Outcomes of cancelled loads are dropped.
+     * <p>
+     * Outcomes queue tracks, reply and may even call the Youtube API, so they are run outside of the lock. A single
+     * thread at a time runs them, the others leave their outcomes to it.
+     *
+     * @param last true if this is the final outcome of the load
+     */
+    private void publish(PendingLoad load, Runnable outcome, boolean last) {
+        synchronized (pending) {
+            load.outcomes.add(outcome);
+            load.done |= last;
+        }
+        drain();
+    }
+
+    //lets the outcomes of a load be applied, once the playlist lookup is done with it
+    private void release(PendingLoad load) {
+        synchronized (pending) {
+            load.held = false;
+        }
+        drain();
+    }
+
+    private void drain() {
+        synchronized (pending) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        boolean drained = false;
         try {
-            IdentifierContext ic = identifierQueue.poll();
-            if (ic != null) {
-                isLoading = true;
-                context = ic;
-
-                if (gplayer.getTrackCount() >= QUEUE_TRACK_LIMIT) {
-                    context.replyWithName(context.i18nFormat("loadQueueTrackLimit", QUEUE_TRACK_LIMIT));
-                    isLoading = false;
-                    return;
+            while (true) {
+                List<Runnable> ready;
+                synchronized (pending) {
+                    ready = takeReadyOutcomes();
+                    if (ready.isEmpty()) {
+                        draining = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                for (Runnable readyOutcome : ready) {
+                    readyOutcome.run();
                 }
+            }
+        } finally {
+            if (!drained) {
+                synchronized (pending) {
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    //guarded by the pending loads. Removes the outcomes of the loads at the head and the loads that are done
+    private List<Runnable> takeReadyOutcomes() {
+        List<Runnable> ready = new ArrayList<>();
+        PendingLoad head;
+        while ((head = pending.peek()) != null && !head.held) {
+            IdentifierContext ic = head.ic;
+            for (Runnable headOutcome : head.outcomes) {
+                ready.add(() -> {
+                    if (ic.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        headOutcome.run();
+                    } catch (Throwable th) {
+                        handleThrowable(ic, th);
+                    }
+                });
+            }
+            head.outcomes.clear();
+            if (!head.done) {
+                break;
+            }
+            pending.poll();
+        }
+        return ready;
+    }
+
+    /**
+     * Queues the tracks of a spotify playlist while they are being resolved, so the first ones can be played before
+     * the whole playlist is.
+     */
+    private CompletableFuture<?> loadStreaming(SpotifyPlaylistSourceManager spotify, PendingLoad load) {
+        IdentifierContext ic = load.ic;
+        SpotifyPlaylistSourceManager.Resolution resolution = spotify.resolve(ic.identifier,
+                tracks -> publish(load, () -> queueResolved(ic, tracks), false));
+        load.streaming = resolution;
+        if (ic.isCancelled()) {
+            resolution.cancel();
+        }
 
-                playerManager.loadItem(ic.identifier, this);
+        return resolution.getCompletion().whenComplete((playlist, t) -> {
+            load.streaming = null;
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            if (cause instanceof CancellationException) {
+                log.info("Stopped loading spotify playlist {}", ic.identifier);
+                publish(load, () -> {}, true);
+            } else if (cause != null) {
+                publish(load, () -> handleThrowable(ic, cause), true);
             } else {
-                isLoading = false;
+                publish(load, () -> ic.reply(ic.i18nFormat("loadListSuccess", playlist.getTracks().size(), playlist.getName())), true);
             }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-            isLoading = false;
+        });
+    }
+
+    private void queueResolved(IdentifierContext ic, List<AudioTrack> tracks) {
+        Metrics.tracksLoaded.inc(tracks.size());
+        List<AudioTrackContext> toAdd = new ArrayList<>();
+        for (AudioTrack at : tracks) {
+            toAdd.add(new AudioTrackContext(at, ic.getMember()));
+        }
+        trackProvider.addAll(toAdd);
+        gplayer.invalidatePreload();
+        if (!gplayer.isPaused()) {
+            gplayer.play();
+        }
+    }
+
+    /**
+     * Stops queueing the tracks of playlists that are still being loaded, if there are any.
+     */
+    public void cancelStreaming() {
+        List<SpotifyPlaylistSourceManager.Resolution> resolutions = new ArrayList<>();
+        synchronized (pending) {
+            for (PendingLoad load : pending) {
+                SpotifyPlaylistSourceManager.Resolution resolution = load.streaming;
+                if (resolution != null) {
+                    resolutions.add(resolution);
+                }
+            }
+        }
+        //outside of the lock, resolutions publish their tracks while holding their own lock
+        for (SpotifyPlaylistSourceManager.Resolution resolution : resolutions) {
+            resolution.cancel();
         }
     }
 
     /**
      * If the requested item is a slow loading playlist that we know of, check for rate limits and announce to the user
      * that it might take a while to gather it.
-     *
-     * @return false if the user is not allowed to load the playlist, true if he is
+     * <p>
+     * Looking the playlist up requires a few http requests to Spotify or the paste services, so this happens in the
+     * background while the playlist is already loading. Its tracks are held back until the lookup is done, so an
+     * exceeded ratelimit cancels the load before anything gets queued. A lookup taking longer than the deadline stops
+     * holding the tracks back, and its playlist is not announced anymore; the ratelimit still cancels what is left of
+     * the load.
      */
-    private boolean ratelimitIfSlowLoadingPlaylistAndAnnounce(IdentifierContext ic) {
-        PlaylistInfo playlistInfo = getSlowLoadingPlaylistData(ic.identifier);
-
-        if (playlistInfo == null) //not a slow loading playlist
-            return true;
-        else {
-            boolean result = true;
-            if (FeatureFlags.RATE_LIMITER.isActive()) {
-                result = Ratelimiter.getRatelimiter().isAllowed(ic, playlistInfo, playlistInfo.getTotalTracks()).a;
+    private void lookUpSlowLoadingPlaylist(PendingLoad load) {
+        IdentifierContext ic = load.ic;
+        long started = System.currentTimeMillis();
+        ScheduledFuture<?> deadline = LOOKUP_DEADLINES.schedule(() -> release(load),
+                PLAYLIST_LOOKUP_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+        CompletableFuture.supplyAsync(() -> getSlowLoadingPlaylistData(ic.identifier), FredBoat.executor)
+                .whenComplete((playlistInfo, t) -> {
+                    deadline.cancel(false);
+                    try {
+                        if (t != null) {
+                            log.warn("Could not look up playlist {}", ic.identifier, t);
+                        } else if (playlistInfo != null) { //null if not a slow loading playlist
+                            boolean announce = System.currentTimeMillis() - started <= PLAYLIST_LOOKUP_DEADLINE_MILLIS;
+                            if (!announce) {
+                                log.info("Looking up playlist {} took longer than {}ms, not announcing it",
+                                        ic.identifier, PLAYLIST_LOOKUP_DEADLINE_MILLIS);
+                            }
+                            ratelimitAndAnnounce(ic, playlistInfo, announce);
+                        }
+                    } catch (Exception e) {
+                        log.error("Failed to ratelimit or announce playlist {}", ic.identifier, e);
+                    } finally {
+                        release(load);
+                    }
+                });
+    }
+
+    private void ratelimitAndAnnounce(IdentifierContext ic, PlaylistInfo playlistInfo, boolean announce) {
+        boolean allowed = true;
+        if (FeatureFlags.RATE_LIMITER.isActive()) {
+            allowed = Ratelimiter.getRatelimiter().isAllowed(ic, playlistInfo, playlistInfo.getTotalTracks()).a;
+        }
+
+        if (!allowed) {
+            if (cancel(ic)) {
+                ic.replyWithMention(ic.i18n("ratelimitedGuildSlowLoadingPlaylist"));
             }
+        } else if (announce && playlistInfo.getTotalTracks() > 50 && isPending(ic)) {
+            //inform user we are possibly about to do nasty time consuming work
+            ic.replyWithName(ic.i18nFormat("loadAnnouncePlaylist",
+                    playlistInfo.getName(), playlistInfo.getTotalTracks()));
+        }
+    }
+
+    /**
+     * @return true if the identifier was still waiting to be loaded or being loaded
+     */
+    private boolean cancel(IdentifierContext ic) {
+        ic.cancel();
+        PendingLoad load = find(ic);
+        if (load == null) {
+            return false;
+        }
+        LoadScheduler.Ticket ticket = load.ticket;
+        if (ticket != null && ticket.cancel()) {
+            publish(load, () -> {}, true); //never going to be started
+        }
+        SpotifyPlaylistSourceManager.Resolution resolution = load.streaming;
+        if (resolution != null) {
+            resolution.cancel();
+        }
+        return true;
+    }
+
+    private boolean isPending(IdentifierContext ic) {
+        return find(ic) != null;
+    }
 
-            if (result) {
-                //inform user we are possibly about to do nasty time consuming work
-                if (playlistInfo.getTotalTracks() > 50) {
-                    ic.replyWithName(ic.i18nFormat("loadAnnouncePlaylist",
-                            playlistInfo.getName(), playlistInfo.getTotalTracks()));
+    @Nullable
+    private PendingLoad find(IdentifierContext ic) {
+        synchronized (pending) {
+            for (PendingLoad load : pending) {
+                if (load.ic == ic) {
+                    return load;
                 }
-                return true;
-            } else {
-                ic.replyWithMention(ic.i18n("ratelimitedGuildSlowLoadingPlaylist"));
-                return false;
             }
         }
+        return null;
     }
 
     /**
@@ -165,78 +428,61 @@ public class AudioLoader implements AudioLoadResultHandler {
         return playlistInfo;
     }
 
-    @Override
-    public void trackLoaded(AudioTrack at) {
+    private void trackLoaded(IdentifierContext ic, AudioTrack at) {
         Metrics.tracksLoaded.inc();
-        try {
-            if(context.isSplit()){
-                loadSplit(at, context);
+        if (ic.isSplit()) {
+            loadSplit(at, ic);
+        } else {
+
+            if (!ic.isQuiet()) {
+                ic.reply(gplayer.isPlaying() ?
+                        ic.i18nFormat("loadSingleTrack", at.getInfo().title)
+                        :
+                        ic.i18nFormat("loadSingleTrackAndPlay", at.getInfo().title)
+                );
             } else {
+                log.info("Quietly loaded " + at.getIdentifier());
+            }
 
-                if (!context.isQuiet()) {
-                    context.reply(gplayer.isPlaying() ?
-                            context.i18nFormat("loadSingleTrack", at.getInfo().title)
-                            :
-                            context.i18nFormat("loadSingleTrackAndPlay", at.getInfo().title)
-                    );
-                } else {
-                    log.info("Quietly loaded " + at.getIdentifier());
-                }
-
-                at.setPosition(context.getPosition());
+            at.setPosition(ic.getPosition());
 
-                trackProvider.add(new AudioTrackContext(at, context.getMember()));
-                if (!gplayer.isPaused()) {
-                    gplayer.play();
-                }
+            trackProvider.add(new AudioTrackContext(at, ic.getMember()));
+            gplayer.invalidatePreload();
+            if (!gplayer.isPaused()) {
+                gplayer.play();
             }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
         }
-        loadNextAsync();
     }
 
-    @Override
-    public void playlistLoaded(AudioPlaylist ap) {
+    private void playlistLoaded(IdentifierContext ic, AudioPlaylist ap) {
         Metrics.tracksLoaded.inc(ap.getTracks() == null ? 0 : ap.getTracks().size());
-        try {
-            if(context.isSplit()){
-                context.reply(context.i18n("loadPlaySplitListFail"));
-                loadNextAsync();
-                return;
-            }
+        if (ic.isSplit()) {
+            ic.reply(ic.i18n("loadPlaySplitListFail"));
+            return;
+        }
 
-            List<AudioTrackContext> toAdd = new ArrayList<>();
-            for (AudioTrack at : ap.getTracks()) {
-                toAdd.add(new AudioTrackContext(at, context.getMember()));
-            }
-            trackProvider.addAll(toAdd);
-            context.reply(context.i18nFormat("loadListSuccess", ap.getTracks().size(), ap.getName()));
-            if (!gplayer.isPaused()) {
-                gplayer.play();
-            }
-        } catch (Throwable th) {
-            handleThrowable(context, th);
+        boolean encode = ap.getTracks().size() > ENCODED_PLAYLIST_THRESHOLD;
+        List<AudioTrackContext> toAdd = new ArrayList<>();
+        for (AudioTrack at : ap.getTracks()) {
+            toAdd.add(encode
+                    ? EncodedAudioTrackContext.of(playerManager, at, ic.getMember())
+                    : new AudioTrackContext(at, ic.getMember()));
+        }
+        trackProvider.addAll(toAdd);
+        gplayer.invalidatePreload();
+        ic.reply(ic.i18nFormat("loadListSuccess", ap.getTracks().size(), ap.getName()));
+        if (!gplayer.isPaused()) {
+            gplayer.play();
         }
-        loadNextAsync();
     }
 
-    @Override
-    public void noMatches() {
-        try {
-            context.reply(context.i18nFormat("loadNoMatches", context.identifier));
-        } catch (Throwable th) {
-            handleThrowable(context, th);
-        }
-        loadNextAsync();
+    private void noMatches(IdentifierContext ic) {
+        ic.reply(ic.i18nFormat("loadNoMatches", ic.identifier));
     }
 
-    @Override
-    public void loadFailed(FriendlyException fe) {
+    private void loadFailed(IdentifierContext ic, FriendlyException fe) {
         Metrics.trackLoadsFailed.inc();
-        handleThrowable(context, fe);
-
-        loadNextAsync();
+        handleThrowable(ic, fe);
     }
 
     private void loadSplit(AudioTrack at, IdentifierContext ic){
@@ -246,7 +492,7 @@ public class AudioLoader implements AudioLoadResultHandler {
         }
         YoutubeAudioTrack yat = (YoutubeAudioTrack) at;
 
-        YoutubeVideo yv = YoutubeAPI.getVideoFromID(yat.getIdentifier(), true);
+        YoutubeVideo yv = YoutubeMetadataCache.ins.getVideo(yat.getIdentifier());
         String desc = yv.getDescription();
         Matcher m = SPLIT_DESCRIPTION_PATTERN.matcher(desc);
 
@@ -321,7 +567,7 @@ public class AudioLoader implements AudioLoadResultHandler {
                     .append(ic.i18nFormat("loadPlaylistTooMany", list.size()));
         }
 
-        context.reply(mb.build());
+        ic.reply(mb.build());
     }
 
     @SuppressWarnings("ThrowableResultIgnored")
@@ -331,20 +577,20 @@ public class AudioLoader implements AudioLoadResultHandler {
                 FriendlyException fe = (FriendlyException) th;
                 if (fe.severity == FriendlyException.Severity.COMMON) {
                     if (ic.getTextChannel() != null) {
-                        context.reply(ic.i18nFormat("loadErrorCommon", context.identifier, fe.getMessage()));
+                        ic.reply(ic.i18nFormat("loadErrorCommon", ic.identifier, fe.getMessage()));
                     } else {
                         log.error("Error while loading track ", th);
                     }
                 } else if (ic.getTextChannel() != null) {
-                    context.reply(ic.i18nFormat("loadErrorSusp", context.identifier));
+                    ic.reply(ic.i18nFormat("loadErrorSusp", ic.identifier));
                     Throwable exposed = fe.getCause() == null ? fe : fe.getCause();
-                    TextUtils.handleException(exposed, context);
+                    TextUtils.handleException(exposed, ic);
                 } else {
                     log.error("Error while loading track ", th);
                 }
             } else if (ic.getTextChannel() != null) {
-                context.reply(ic.i18n("loadErrorSusp"));
-                TextUtils.handleException(th, context);
+                ic.reply(ic.i18n("loadErrorSusp"));
+                TextUtils.handleException(th, ic);
             } else {
                 log.error("Error while loading track ", th);
             }
@@ -354,4 +600,50 @@ public class AudioLoader implements AudioLoadResultHandler {
         }
     }
 
+    private static class PendingLoad {
+        private final IdentifierContext ic;
+        //the following are guarded by the pending loads of the audio loader
+        private final List<Runnable> outcomes = new ArrayList<>();
+        private boolean done = false;
+        //outcomes are not applied while the playlist lookup holds them back
+        private boolean held = true;
+
+        @Nullable
+        private volatile LoadScheduler.Ticket ticket = null;
+        @Nullable
+        private volatile SpotifyPlaylistSourceManager.Resolution streaming = null;
+
+        private PendingLoad(IdentifierContext ic) {
+            this.ic = ic;
+        }
+    }
+
+    //applies the result of a lavaplayer load in the order it was requested
+    private class Delivery implements AudioLoadResultHandler {
+        private final PendingLoad load;
+
+        private Delivery(PendingLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            publish(load, () -> AudioLoader.this.trackLoaded(load.ic, track), true);
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            publish(load, () -> AudioLoader.this.playlistLoaded(load.ic, playlist), true);
+        }
+
+        @Override
+        public void noMatches() {
+            publish(load, () -> AudioLoader.this.noMatches(load.ic), true);
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            publish(load, () -> AudioLoader.this.loadFailed(load.ic, exception), true);
+        }
+    }
 }
@@ -26,6 +26,7 @@
 package fredboat.audio.queue;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import fredboat.FredBoat;
 import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.PlayerRegistry;
@@ -40,7 +41,7 @@ import java.util.concurrent.ThreadLocalRandom;
 
 public class AudioTrackContext extends LeakSafeContext implements Comparable<AudioTrackContext> {
 
-    protected final AudioTrack track;
+    protected final AudioTrack track; //null for EncodedAudioTrackContext, which decodes its track in getTrack()
     private final long added;
     private int rand;
     private final long trackId; //used to identify this track even when the track gets cloned and the rand reranded
@@ -63,6 +64,13 @@ public class AudioTrackContext extends LeakSafeContext implements Comparable<Aud
         return track;
     }
 
+    /**
+     * @return info of the track, without keeping a decoded track around for entries that are queued encoded
+     */
+    public AudioTrackInfo getTrackInfo() {
+        return track.getInfo();
+    }
+
     public long getUserId() {
         return userId;
     }
@@ -93,11 +101,15 @@ public class AudioTrackContext extends LeakSafeContext implements Comparable<Aud
     }
 
     public AudioTrackContext makeClone() {
-        return new AudioTrackContext(track.makeClone(), userId, guildId);
+        return new AudioTrackContext(getTrack().makeClone(), guildId, userId);
+    }
+
+    public boolean isStream() {
+        return getTrackInfo().isStream;
     }
 
     public long getEffectiveDuration() {
-        return track.getDuration();
+        return getTrack().getDuration();
     }
 
     //NOTE: convenience method that returns the position of the track currently playing in the guild where this track was added
@@ -111,7 +123,7 @@ public class AudioTrackContext extends LeakSafeContext implements Comparable<Aud
     }
 
     public String getEffectiveTitle() {
-        return track.getInfo().title;
+        return getTrackInfo().title;
     }
 
     public long getStartPosition() {
@@ -138,7 +150,7 @@ public class AudioTrackContext extends LeakSafeContext implements Comparable<Aud
 
     @Override
     public int hashCode() {
-        int result = track.hashCode();
+        int result = getTrack().hashCode();
         result = 31 * result + Long.hashCode(userId);
         result = 31 * result + Long.hashCode(guildId);
         result = 31 * result + Long.hashCode(trackId);
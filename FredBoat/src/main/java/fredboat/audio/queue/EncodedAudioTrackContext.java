@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import fredboat.audio.player.AbstractPlayer;
+import net.dv8tion.jda.core.entities.Member;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A track context that keeps its track only in the encoded form of the player manager, plus the few values that are
+ * needed to queue it. Large playlists are queued as these, so that their tracks don't sit on the heap as fully
+ * materialized AudioTrack objects.
+ * <p>
+ * The track is decoded and kept when it gets close to the head of the queue or is played (see {@link #decode()}).
+ * Anything else reading the track of an entry that has not been decoded that way, like {@link #getTrack()} or
+ * {@link #getTrackInfo()}, decodes it without keeping the result.
+ */
+public class EncodedAudioTrackContext extends AudioTrackContext {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(EncodedAudioTrackContext.class);
+
+    private final byte[] encoded;
+    private final int titleHash;
+    private final long duration;
+    private final boolean isStream;
+    @Nullable
+    private volatile AudioTrack decoded = null;
+
+    private EncodedAudioTrackContext(byte[] encoded, int titleHash, long duration, boolean isStream,
+                                     long guildId, long userId) {
+        super(null, guildId, userId);
+        this.encoded = encoded;
+        this.titleHash = titleHash;
+        this.duration = duration;
+        this.isStream = isStream;
+    }
+
+    /**
+     * @return an encoded context of the track, or a regular one if the track can't be encoded
+     */
+    public static AudioTrackContext of(AudioPlayerManager playerManager, AudioTrack at, Member member) {
+        long guildId = member.getGuild().getIdLong();
+        long userId = member.getUser().getIdLong();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            playerManager.encodeTrack(new MessageOutput(baos), at);
+            AudioTrackInfo info = at.getInfo();
+            return new EncodedAudioTrackContext(baos.toByteArray(), info.title.hashCode(), at.getDuration(),
+                    info.isStream, guildId, userId);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not encode track {}, keeping it decoded", at.getIdentifier(), e);
+            return new AudioTrackContext(at, member);
+        }
+    }
+
+    /**
+     * Recreates a context from values previously read from one, see {@link MusicPersistenceHandler}
+     */
+    static EncodedAudioTrackContext restore(byte[] encoded, int titleHash, long duration, boolean isStream,
+                                            long guildId, long userId) {
+        return new EncodedAudioTrackContext(encoded, titleHash, duration, isStream, guildId, userId);
+    }
+
+    /**
+     * Decodes the track and keeps it, unless that has happened already.
+     */
+    public AudioTrack decode() {
+        AudioTrack result = decoded;
+        if (result == null) {
+            synchronized (this) {
+                result = decoded;
+                if (result == null) {
+                    result = decodeTrack();
+                    decoded = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean isDecoded() {
+        return decoded != null;
+    }
+
+    /**
+     * @return the encoded track, as written by {@link AudioPlayerManager#encodeTrack(MessageOutput, AudioTrack)}
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    int getTitleHash() {
+        return titleHash;
+    }
+
+    /**
+     * @return the kept track if this has been decoded, or else a freshly decoded track that is not kept
+     */
+    @Override
+    public AudioTrack getTrack() {
+        AudioTrack track = decoded;
+        return track != null ? track : decodeTrack();
+    }
+
+    @Override
+    public AudioTrackInfo getTrackInfo() {
+        return getTrack().getInfo();
+    }
+
+    @Override
+    public boolean isStream() {
+        return isStream;
+    }
+
+    @Override
+    public long getEffectiveDuration() {
+        return duration;
+    }
+
+    @Override
+    public String getEffectiveTitle() {
+        return getTrackInfo().title;
+    }
+
+    @Override
+    public AudioTrackContext makeClone() {
+        //the encoded track is immutable and can be shared, the clone will decode its own track when needed
+        return new EncodedAudioTrackContext(encoded, titleHash, duration, isStream, guildId, userId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncodedAudioTrackContext)) return false;
+
+        EncodedAudioTrackContext that = (EncodedAudioTrackContext) o;
+
+        if (getRand() != that.getRand()) return false;
+        if (titleHash != that.titleHash) return false;
+        if (userId != that.userId) return false;
+        if (guildId != that.guildId) return false;
+        return Arrays.equals(encoded, that.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = titleHash;
+        result = 31 * result + Long.hashCode(userId);
+        result = 31 * result + Long.hashCode(guildId);
+        result = 31 * result + Long.hashCode(getTrackId());
+        return result;
+    }
+
+    private AudioTrack decodeTrack() {
+        //we encoded this ourselves with the same player manager, so none of this should ever happen
+        DecodedTrackHolder holder;
+        try {
+            holder = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decode a queued track", e);
+        }
+        if (holder == null || holder.decodedTrack == null) {
+            throw new IllegalStateException("No source manager could decode a queued track");
+        }
+        return holder.decodedTrack;
+    }
+}
@@ -98,6 +98,12 @@ public interface ITrackProvider {
      */
     void removeAllById(Collection<Long> trackIds);
 
+    /**
+     * @param index the index of the track to be removed in playing order
+     * @return the removed track
+     */
+    AudioTrackContext removeAt(int index);
+
     /**
      * @param index the index of the requested track in playing order
      * @return the track at the given index
@@ -131,4 +137,9 @@ public interface ITrackProvider {
      */
     boolean isUserTrackOwner(long userId, Collection<Long> trackIds);
 
+    /**
+     * @return ids of the queued tracks that were added by the provided user
+     */
+    List<Long> getTrackIdsByUser(long userId);
+
 }
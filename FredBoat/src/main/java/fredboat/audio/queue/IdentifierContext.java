@@ -39,6 +39,7 @@ public class IdentifierContext extends LeakSafeContext {
     private boolean quiet = false;
     private boolean split = false;
     private long position = 0L;
+    private volatile boolean cancelled = false;
 
     public IdentifierContext(String identifier, TextChannel textChannel, Member member) {
         super(textChannel, member);
@@ -70,6 +71,15 @@ public class IdentifierContext extends LeakSafeContext {
         this.position = position;
     }
 
+    //loaders drop the results of cancelled identifiers
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
     @Override
     public TextChannel getTextChannel() {
         return shard.getJda().getTextChannelById(channelId);
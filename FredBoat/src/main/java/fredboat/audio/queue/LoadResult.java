@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.util.rest.SearchUtil;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The outcome of loading an identifier with lavaplayer, so that it can be handed to more than one
+ * {@link AudioLoadResultHandler}.
+ */
+class LoadResult {
+
+    @Nullable
+    private final AudioTrack track;
+    @Nullable
+    private final AudioPlaylist playlist;
+    @Nullable
+    private final FriendlyException exception;
+
+    private LoadResult(@Nullable AudioTrack track, @Nullable AudioPlaylist playlist,
+                       @Nullable FriendlyException exception) {
+        this.track = track;
+        this.playlist = playlist;
+        this.exception = exception;
+    }
+
+    static CompletableFuture<LoadResult> load(AudioPlayerManager playerManager, String identifier) {
+        CompletableFuture<LoadResult> future = new CompletableFuture<>();
+        playerManager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                future.complete(new LoadResult(track, null, null));
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                future.complete(new LoadResult(null, playlist, null));
+            }
+
+            @Override
+            public void noMatches() {
+                future.complete(new LoadResult(null, null, null));
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                future.complete(new LoadResult(null, null, exception));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the track if a single track was loaded
+     */
+    @Nullable
+    AudioTrack getTrack() {
+        return track;
+    }
+
+    /**
+     * @return a result with fresh instances of the loaded tracks, as lavaplayer tracks can only be played once
+     */
+    LoadResult copy() {
+        if (track != null) {
+            return new LoadResult(track.makeClone(), null, null);
+        } else if (playlist != null) {
+            return new LoadResult(null, SearchUtil.clonePlaylist(playlist), null);
+        } else {
+            return this;
+        }
+    }
+
+    void deliverTo(AudioLoadResultHandler handler) {
+        if (track != null) {
+            handler.trackLoaded(track);
+        } else if (playlist != null) {
+            handler.playlistLoaded(playlist);
+        } else if (exception != null) {
+            handler.loadFailed(exception);
+        } else {
+            handler.noMatches();
+        }
+    }
+}
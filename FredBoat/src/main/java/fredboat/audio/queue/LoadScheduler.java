@@ -0,0 +1,239 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue;
+
+import fredboat.FredBoat;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Starts the loads of identifiers requested by all guilds of this node.
+ * <p>
+ * Loads of a guild are started in the order they were submitted, with a few of them running at the same time, so a
+ * slow playlist does not hold up a single song queued after it. The guild with the fewest running loads starts its
+ * next load first, and the amount of loads running on the node is capped, so a guild queueing lots of links can
+ * neither delay the loads of other guilds nor occupy all item loader threads of the player manager.
+ * <p>
+ * Loads are started on an executor rather than on the thread submitting them or finishing the previous load, so a
+ * command never runs the loads of other guilds, and loads completing right away don't recurse into starting the next.
+ * <p>
+ * Queue depth and the time loads spent waiting to be started are published as metrics.
+ */
+public class LoadScheduler {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(LoadScheduler.class);
+
+    //the player manager has 500 item loader threads, leave some of them to searches and other loads
+    private static final int MAX_RUNNING_LOADS = 200;
+    private static final int MAX_RUNNING_LOADS_PER_GUILD = 3;
+
+    public static final LoadScheduler ins = new LoadScheduler(MAX_RUNNING_LOADS, MAX_RUNNING_LOADS_PER_GUILD,
+            FredBoat.executor);
+
+    private final int maxRunning;
+    private final int maxRunningPerGuild;
+    private final Executor starter;
+
+    //the following are guarded by this
+    private final Map<Long, GuildLoads> guilds = new HashMap<>();
+    //guilds with queued loads, in the order of their turns
+    private final ArrayDeque<GuildLoads> turns = new ArrayDeque<>();
+    private int queued = 0;
+    private int running = 0;
+
+    /**
+     * @param starter runs the start of the loads. Should not run them on the calling thread, only tests do that.
+     */
+    LoadScheduler(int maxRunning, int maxRunningPerGuild, Executor starter) {
+        this.maxRunning = maxRunning;
+        this.maxRunningPerGuild = maxRunningPerGuild;
+        this.starter = starter;
+    }
+
+    /**
+     * Queues a load of a guild.
+     *
+     * @param load starts the load, the returned future is completed once it is done. Should not block.
+     * @return the queued load, which may be cancelled until it has been started
+     */
+    public Ticket submit(long guildId, Supplier<CompletableFuture<?>> load) {
+        Ticket ticket = new Ticket(guildId, load);
+        synchronized (this) {
+            GuildLoads guildLoads = guilds.computeIfAbsent(guildId, id -> new GuildLoads());
+            if (guildLoads.queue.isEmpty()) {
+                turns.add(guildLoads);
+            }
+            guildLoads.queue.add(ticket);
+            queued++;
+            Metrics.loadsQueued.set(queued);
+        }
+        dispatch();
+        return ticket;
+    }
+
+    /**
+     * @return amount of loads waiting to be started
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return amount of loads that have been started and are not done yet
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return amount of guilds with queued or running loads
+     */
+    synchronized int getGuildCount() {
+        return guilds.size();
+    }
+
+    //starts queued loads while there is capacity for them, going round robin over the guilds
+    private void dispatch() {
+        List<Ticket> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxRunning) {
+                Ticket ticket = pollNextTurn();
+                if (ticket == null) {
+                    break;
+                }
+                toStart.add(ticket);
+            }
+            Metrics.loadsQueued.set(queued);
+            Metrics.loadsRunning.set(running);
+        }
+        if (!toStart.isEmpty()) {
+            //one task, so the loads start in the order they were polled
+            starter.execute(() -> toStart.forEach(this::start));
+        }
+    }
+
+    //guarded by this. The guild with the fewest running loads goes next, guilds with as many take turns
+    @Nullable
+    private Ticket pollNextTurn() {
+        GuildLoads next = null;
+        for (GuildLoads guildLoads : turns) {
+            if (guildLoads.running < maxRunningPerGuild && (next == null || guildLoads.running < next.running)) {
+                next = guildLoads;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        turns.remove(next);
+        Ticket ticket = next.queue.poll();
+        if (!next.queue.isEmpty()) {
+            turns.add(next);
+        }
+        next.running++;
+        queued--;
+        running++;
+        ticket.started = true;
+        return ticket;
+    }
+
+    private void start(Ticket ticket) {
+        Metrics.loadWaitTime.observe((System.nanoTime() - ticket.submitted) / (double) TimeUnit.SECONDS.toNanos(1));
+        CompletableFuture<?> done;
+        try {
+            done = ticket.load.get();
+        } catch (Exception e) {
+            log.error("Failed to start a load of guild {}", ticket.guildId, e);
+            done(ticket);
+            return;
+        }
+        done.whenComplete((result, t) -> done(ticket));
+    }
+
+    private void done(Ticket ticket) {
+        synchronized (this) {
+            running--;
+            GuildLoads guildLoads = guilds.get(ticket.guildId);
+            guildLoads.running--;
+            if (guildLoads.running == 0 && guildLoads.queue.isEmpty()) {
+                guilds.remove(ticket.guildId);
+            }
+        }
+        dispatch();
+    }
+
+    private synchronized boolean cancel(Ticket ticket) {
+        if (ticket.started) {
+            return false;
+        }
+        GuildLoads guildLoads = guilds.get(ticket.guildId);
+        if (guildLoads == null || !guildLoads.queue.remove(ticket)) {
+            return false;
+        }
+        queued--;
+        Metrics.loadsQueued.set(queued);
+        if (guildLoads.queue.isEmpty()) {
+            turns.remove(guildLoads);
+            if (guildLoads.running == 0) {
+                guilds.remove(ticket.guildId);
+            }
+        }
+        return true;
+    }
+
+    public class Ticket {
+        private final long guildId;
+        private final Supplier<CompletableFuture<?>> load;
+        private final long submitted = System.nanoTime();
+        private boolean started = false; //guarded by the scheduler
+
+        private Ticket(long guildId, Supplier<CompletableFuture<?>> load) {
+            this.guildId = guildId;
+            this.load = load;
+        }
+
+        /**
+         * @return true if the load was removed from the queue, false if it has been started already
+         */
+        public boolean cancel() {
+            return LoadScheduler.this.cancel(this);
+        }
+    }
+
+    private static class GuildLoads {
+        private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+        private int running = 0;
+    }
+}
@@ -25,8 +25,8 @@
 
 package fredboat.audio.queue;
 
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import fredboat.Config;
 import fredboat.FredBoat;
@@ -49,24 +49,74 @@ import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the queues of all playing players on shutdown, and restores them when the shards come back up.
+ * <p>
+ * Each shard gets one binary snapshot file. It starts with {@link #MAGIC}, {@link #VERSION} and the first queue
+ * journal segment that is not part of it, followed by one length prefixed {@link PersistedPlayer} record per player
+ * and a negative length marking the end.
+ * <p>
+ * Snapshots are written to a temporary file and then renamed into place, so a crash while writing never leaves a half
+ * written snapshot behind. On shutdown, a pool of workers writes them, one shard each. Besides that the
+ * {@link QueueJournal} writes them whenever it compacts the journal of a shard, so they can also be recovered from
+ * after a crash. Restoring a shard reads its snapshot, replays its journal on top of it and hands the players to the
+ * {@link RestoreScheduler}. Queued tracks are restored in their encoded form, so only the playing tracks need decoding.
+ * <p>
+ * Until the restores of a shard are done, its snapshot and journal are the only copy of the players that are still
+ * waiting. Shutting down before that writes those players back into the snapshot, next to the playing ones.
+ * <p>
+ * Files of the previous json format (one per guild) are still read once.
+ */
 public class MusicPersistenceHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(MusicPersistenceHandler.class);
 
+    public static final String DIR = "music_persistence";
+    private static final int MAGIC = 0x46425053; //FBPS
+    private static final int VERSION = 2;
+    private static final int END_OF_SNAPSHOT = -1;
+
+    private static final long SAVE_TIMEOUT_SECONDS = 60;
+
+    //shards are reloaded once per process, revived shards keep their players
+    private static final Set<Integer> reloadedShards = ConcurrentHashMap.newKeySet();
+    //shards whose restores are done, all of their players are in the player registry
+    private static final Set<Integer> liveShards = ConcurrentHashMap.newKeySet();
+
     private MusicPersistenceHandler() {
     }
 
     public static void handlePreShutdown(int code) {
-        File dir = new File("music_persistence");
+        File dir = new File(DIR);
         if (!dir.exists()) {
             boolean created = dir.mkdir();
             if (!created) {
@@ -74,88 +124,177 @@ public class MusicPersistenceHandler {
                 return;
             }
         }
-        Map<Long, GuildPlayer> reg = PlayerRegistry.getRegistry();
-
-        boolean isUpdate = code == ExitCodes.EXIT_CODE_UPDATE;
-        boolean isRestart = code == ExitCodes.EXIT_CODE_RESTART;
-
-        for (long gId : reg.keySet()) {
-            try {
-                GuildPlayer player = reg.get(gId);
-
-                if (!player.isPlaying()) {
-                    continue;//Nothing to see here
-                }
+        //nothing gets journaled from here on, the snapshots written below replace the journal
+        QueueJournal.ins.close();
+
+        long started = System.currentTimeMillis();
+        int numShards = Config.CONFIG.getNumShards();
+
+        String messageKey;
+        if (code == ExitCodes.EXIT_CODE_UPDATE) {
+            messageKey = "shutdownUpdating";
+        } else if (code == ExitCodes.EXIT_CODE_RESTART) {
+            messageKey = "shutdownRestarting";
+        } else {
+            messageKey = "shutdownIndef";
+        }
 
-                String msg;
+        Map<Integer, List<GuildPlayer>> playersByShard = new HashMap<>();
+        for (Map.Entry<Long, GuildPlayer> entry : PlayerRegistry.getRegistry().entrySet()) {
+            GuildPlayer player = entry.getValue();
+            if (!player.isPlaying()) {
+                continue;//Nothing to see here
+            }
+            int shardId = (int) ((entry.getKey() >> 22) % numShards);
+            playersByShard.computeIfAbsent(shardId, id -> new ArrayList<>()).add(player);
+        }
 
-                if (isUpdate) {
-                    msg = I18n.get(player.getGuild()).getString("shutdownUpdating");
-                } else if (isRestart) {
-                    msg = I18n.get(player.getGuild()).getString("shutdownRestarting");
+        //players of shards that haven't gone live yet, they are not in the player registry
+        Map<Integer, List<PersistedPlayer>> waitingByShard = new HashMap<>();
+        Set<Integer> shardIds = new HashSet<>();
+        for (int shardId = 0; shardId < numShards; shardId++) {
+            List<GuildPlayer> playing = playersByShard.getOrDefault(shardId, Collections.emptyList());
+            if (liveShards.contains(shardId)) {
+                if (playing.isEmpty()) {
+                    //there may still be a snapshot and journal from compactions lying around
+                    File snapshot = snapshotFile(dir, shardId);
+                    if (snapshot.exists() && !snapshot.delete()) {
+                        log.warn("Failed to delete persistence file: {}", snapshot);
+                    }
+                    QueueJournal.ins.deleteSegments(shardId);
                 } else {
-                    msg = I18n.get(player.getGuild()).getString("shutdownIndef");
-                }
-
-                TextChannel activeTextChannel = player.getActiveTextChannel();
-                if (activeTextChannel != null) {
-                    CentralMessaging.sendMessage(activeTextChannel, msg);
-                }
-
-                JSONObject data = new JSONObject();
-                data.put("vc", player.getCurrentVoiceChannel().getId());
-                data.put("tc", activeTextChannel != null ? activeTextChannel.getId() : "");
-                data.put("isPaused", player.isPaused());
-                data.put("volume", Float.toString(player.getVolume()));
-                data.put("repeatMode", player.getRepeatMode());
-                data.put("shuffle", player.isShuffle());
-
-                if (player.getPlayingTrack() != null) {
-                    data.put("position", player.getPosition());
+                    shardIds.add(shardId);
                 }
+                continue;
+            }
 
-                ArrayList<JSONObject> identifiers = new ArrayList<>();
-
-                for (AudioTrackContext atc : player.getRemainingTracks()) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    AbstractPlayer.getPlayerManager().encodeTrack(new MessageOutput(baos), atc.getTrack());
-
-                    JSONObject ident = new JSONObject()
-                            .put("message", Base64.encodeBase64String(baos.toByteArray()))
-                            .put("user", atc.getUserId());
-
-                    if(atc instanceof SplitAudioTrackContext) {
-                        JSONObject split = new JSONObject();
-                        SplitAudioTrackContext c = (SplitAudioTrackContext) atc;
-                        split.put("title", c.getEffectiveTitle())
-                                .put("startPos", c.getStartPosition())
-                                .put("endPos", c.getStartPosition() + c.getEffectiveDuration());
-
-                        ident.put("split", split);
-                    }
+            List<PersistedPlayer> waiting;
+            if (reloadedShards.contains(shardId)) {
+                waiting = RestoreScheduler.ins.stop(shardId);
+            } else if (!playing.isEmpty()) {
+                //the snapshot of this shard has not been read yet, the playing players are added to it
+                waiting = new ArrayList<>(readPlayers(dir, shardId).values());
+            } else {
+                continue; //the snapshot and journal are kept for the next start
+            }
+            Set<Long> playingGuilds = new HashSet<>();
+            for (GuildPlayer player : playing) {
+                playingGuilds.add(player.getGuildId());
+            }
+            waiting.removeIf(player -> playingGuilds.contains(player.getGuildId()));
+            if (!waiting.isEmpty()) {
+                waitingByShard.put(shardId, waiting);
+            }
+            if (!waiting.isEmpty() || !playing.isEmpty()) {
+                shardIds.add(shardId);
+            }
+        }
+        if (shardIds.isEmpty()) {
+            log.info("No players to persist");
+            return;
+        }
 
-                    identifiers.add(ident);
+        int threads = Math.min(shardIds.size(), Math.max(2, Runtime.getRuntime().availableProcessors()));
+        ExecutorService writers = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, "music-persistence-writer"));
+        AtomicInteger saved = new AtomicInteger(0);
+        for (int shardId : shardIds) {
+            List<GuildPlayer> players = playersByShard.getOrDefault(shardId, Collections.emptyList());
+            List<PersistedPlayer> waiting = waitingByShard.getOrDefault(shardId, Collections.emptyList());
+            writers.submit(() -> {
+                try {
+                    saved.addAndGet(writeSnapshot(dir, shardId, players, waiting, messageKey, Long.MAX_VALUE));
+                    QueueJournal.ins.deleteSegments(shardId);
+                } catch (Exception e) {
+                    log.error("Error when saving music persistence snapshot of shard {}", shardId, e);
                 }
+            });
+        }
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.error("Timed out saving music persistence snapshots after {}s", SAVE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted while saving music persistence snapshots", e);
+            Thread.currentThread().interrupt();
+        }
+        log.info("Saved {} players of {} shards in {}ms", saved.get(), shardIds.size(),
+                System.currentTimeMillis() - started);
+    }
 
-                data.put("sources", identifiers);
-
+    /**
+     * Writes a snapshot of the players of a shard, replacing its previous one.
+     *
+     * @param waiting    players that have not been restored yet, they are written as they are
+     * @param messageKey i18n key of a message to send to the players' channels, may be null to not send any
+     * @param replayFrom the first queue journal segment that is not part of this snapshot
+     * @return amount of players saved
+     */
+    static int writeSnapshot(File dir, int shardId, List<GuildPlayer> players, List<PersistedPlayer> waiting,
+                             @Nullable String messageKey, long replayFrom) throws IOException {
+        AudioPlayerManager playerManager = AbstractPlayer.getPlayerManager();
+        File snapshot = snapshotFile(dir, shardId);
+        File temp = new File(dir, snapshot.getName() + ".tmp");
+        List<TextChannel> channels = new ArrayList<>();
+        int saved = 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(replayFrom);
+
+            //each player is written to this buffer first, so a failing player doesn't leave a broken record behind
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            ByteArrayOutputStream track = new ByteArrayOutputStream();
+            for (GuildPlayer player : players) {
                 try {
-                    FileUtils.writeStringToFile(new File(dir, Long.toString(gId)), data.toString(), Charset.forName("UTF-8"));
-                } catch (IOException ex) {
-                    if (activeTextChannel != null) {
-                        CentralMessaging.sendMessage(activeTextChannel,
-                                MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"),
-                                        ex.getMessage()));
+                    long tcId = player.getCurrentTCId();
+                    if (messageKey != null) {
+                        TextChannel activeTextChannel = player.getActiveTextChannel();
+                        if (activeTextChannel != null) {
+                            CentralMessaging.sendMessage(activeTextChannel,
+                                    I18n.get(player.getGuild()).getString(messageKey));
+                            channels.add(activeTextChannel);
+                            tcId = activeTextChannel.getIdLong();
+                        }
                     }
+                    VoiceChannel vc = player.getCurrentVoiceChannel();
+                    if (vc == null) {
+                        continue;
+                    }
+
+                    record.reset();
+                    PersistedPlayer.write(new DataOutputStream(record), player, vc, tcId, playerManager, track);
+                    out.writeInt(record.size());
+                    record.writeTo(out);
+                    saved++;
+                } catch (Exception e) {
+                    log.error("Error when saving player of guild {}", player.getGuildId(), e);
                 }
-            } catch (Exception ex) {
-                log.error("Error when saving persistence file", ex);
             }
+            for (PersistedPlayer player : waiting) {
+                record.reset();
+                player.write(new DataOutputStream(record));
+                out.writeInt(record.size());
+                record.writeTo(out);
+                saved++;
+            }
+            out.writeInt(END_OF_SNAPSHOT);
+        } catch (IOException e) {
+            for (TextChannel channel : channels) {
+                CentralMessaging.sendMessage(channel, MessageFormat.format(
+                        I18n.get(channel.getGuild()).getString("shutdownPersistenceFail"), e.getMessage()));
+            }
+            throw e;
         }
+
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return saved;
     }
 
     public static void reloadPlaylists(FredBoat shard) {
-        File dir = new File("music_persistence");
+        File dir = new File(DIR);
 
         if(Config.CONFIG.getDistribution() == DistributionEnum.MUSIC) {
             log.warn("Music persistence loading is disabled on the MUSIC distribution! Use PATRON or DEVELOPMENT instead"
@@ -163,18 +302,108 @@ public class MusicPersistenceHandler {
             return;
         }
 
-        log.info("Began reloading playlists for shard {}", shard.getShardInfo().getShardId());
+        int shardId = shard.getShardInfo().getShardId();
+        if (!reloadedShards.add(shardId)) {
+            //the shard has been revived, its players are still around
+            log.info("Playlists of shard {} have been reloaded before, skipping", shardId);
+            return;
+        }
+        log.info("Began reloading playlists for shard {}", shardId);
         if (!dir.exists()) {
             log.info("No music persistence directory found.");
+            liveShards.add(shardId);
+            QueueJournal.ins.goLive(shardId);
             return;
         }
-        File[] files = dir.listFiles();
+
+        long started = System.currentTimeMillis();
+        File snapshot = snapshotFile(dir, shardId);
+        Map<Long, PersistedPlayer> players = readPlayers(dir, shardId);
+        log.info("Read {} players of shard {} in {}ms", players.size(), shardId, System.currentTimeMillis() - started);
+
+        reloadLegacyFiles(shard.getJda(), dir);
+
+        AudioPlayerManager playerManager = AbstractPlayer.getPlayerManager();
+        List<RestoreScheduler.Restore> restores = new ArrayList<>(players.size());
+        for (PersistedPlayer player : players.values()) {
+            restores.add(new RestoreScheduler.Restore(player.getGuildId(), player.getVoiceChannelId(),
+                    jda -> player.restore(jda, playerManager), player));
+        }
+        RestoreScheduler.ins.schedule(shard, restores, () -> {
+            liveShards.add(shardId);
+            if (QueueJournal.ins.isEnabled()) {
+                //replaces the snapshot and journal we just read with the restored players
+                QueueJournal.ins.goLive(shardId);
+            } else if (snapshot.exists()) {
+                boolean deleted = snapshot.delete();
+                log.info(deleted ? "Deleted persistence file: " + snapshot : "Failed to delete persistence file: " + snapshot);
+            }
+        });
+    }
+
+    private static File snapshotFile(File dir, int shardId) {
+        return new File(dir, "shard-" + shardId + ".bin");
+    }
+
+    /**
+     * Reads the snapshot of a shard and replays its journal on top of it
+     *
+     * @return guild id -> player
+     */
+    private static Map<Long, PersistedPlayer> readPlayers(File dir, int shardId) {
+        File snapshot = snapshotFile(dir, shardId);
+        Map<Long, PersistedPlayer> players = new LinkedHashMap<>();
+        long replayFrom = snapshot.exists() ? readSnapshot(snapshot, players) : 0;
+        QueueJournal.ins.replay(shardId, replayFrom, players);
+        return players;
+    }
+
+    /**
+     * @return the first queue journal segment that is not part of the snapshot
+     */
+    private static long readSnapshot(File snapshot, Map<Long, PersistedPlayer> players) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC) {
+                log.error("{} is not a music persistence snapshot, skipping it", snapshot);
+                return 0;
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                log.error("Unknown version {} of music persistence snapshot {}, skipping it", version, snapshot);
+                return 0;
+            }
+            long replayFrom = in.readLong();
+
+            int length;
+            while ((length = in.readInt()) != END_OF_SNAPSHOT) {
+                byte[] record = new byte[length];
+                in.readFully(record);
+                try {
+                    PersistedPlayer player = PersistedPlayer.read(new DataInputStream(new ByteArrayInputStream(record)));
+                    players.put(player.getGuildId(), player);
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("Skipping a broken player record of {}", snapshot, e);
+                }
+            }
+            return replayFrom;
+        } catch (EOFException e) {
+            //a snapshot is renamed into place after being written, so this should never happen
+            log.error("Music persistence snapshot {} is truncated, restoring what could be read", snapshot);
+        } catch (IOException e) {
+            log.error("Error when reading music persistence snapshot {}", snapshot, e);
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the json files, one per guild, that were written before the binary snapshots existed.
+     */
+    private static void reloadLegacyFiles(JDA jda, File dir) {
+        File[] files = dir.listFiles((d, name) -> name.matches("\\d+"));
         if (files == null || files.length == 0) {
-            log.info("No files present in music persistence directory");
             return;
         }
 
-        JDA jda = shard.getJda();
         for (File file : files) {
             try {
                 Guild guild = jda.getGuildById(file.getName());
@@ -0,0 +1,311 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sorted collection that can be accessed by index (an order statistic tree), implemented as a treap whose nodes know
+ * the size of their subtree. Insertion, removal and index based access run in O(log n), reading a range of k elements
+ * runs in O(log n + k).
+ * <p>
+ * The comparator has to be consistent with equals and must never consider two different elements equal; elements
+ * must not change their ordering while they are part of the tree.
+ * <p>
+ * This class is not thread safe.
+ */
+public class OrderStatisticTree<E> {
+
+    private final Comparator<? super E> comparator;
+    @Nullable
+    private Node<E> root = null;
+
+    public OrderStatisticTree(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * @return true if the element was added, false if an element comparing equal to it is already part of the tree
+     */
+    public boolean add(E element) {
+        if (contains(element)) {
+            return false;
+        }
+        Node<E>[] split = split(root, element, false);
+        root = merge(merge(split[0], new Node<>(element)), split[1]);
+        return true;
+    }
+
+    /**
+     * @return true if the element was part of the tree
+     */
+    public boolean remove(E element) {
+        Node<E>[] lower = split(root, element, false);
+        Node<E>[] upper = split(lower[1], element, true);
+        Node<E> removed = upper[0];
+        root = merge(lower[0], upper[1]);
+        return removed != null;
+    }
+
+    public boolean contains(E element) {
+        return indexOf(element) >= 0;
+    }
+
+    /**
+     * @return the element at the given position
+     * @throws IndexOutOfBoundsException if there is no such position
+     */
+    public E get(int index) {
+        checkIndex(index);
+        Node<E> node = root;
+        while (true) {
+            //noinspection ConstantConditions checkIndex makes sure we find the index before running out of nodes
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+    }
+
+    /**
+     * @return position of the element, or -1 if it is not part of this tree
+     */
+    public int indexOf(E element) {
+        Node<E> node = root;
+        int offset = 0;
+        while (node != null) {
+            int c = comparator.compare(element, node.value);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                offset += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return offset + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the lowest element, or null if the tree is empty
+     */
+    @Nullable
+    public E first() {
+        Node<E> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    /**
+     * Removes and returns the lowest element
+     *
+     * @return the lowest element, or null if the tree is empty
+     */
+    @Nullable
+    public E pollFirst() {
+        if (root == null) {
+            return null;
+        }
+        return removeAt(0);
+    }
+
+    /**
+     * Removes and returns the element at the given position
+     *
+     * @throws IndexOutOfBoundsException if there is no such position
+     */
+    public E removeAt(int index) {
+        checkIndex(index);
+        Node<E>[] lower = splitAt(root, index);
+        Node<E>[] upper = splitAt(lower[1], 1);
+        root = merge(lower[0], upper[1]);
+        //noinspection ConstantConditions checkIndex makes sure this exists
+        return upper[0].value;
+    }
+
+    /**
+     * @param fromIndex inclusive, will be raised to 0 if lower
+     * @param toIndex   exclusive, will be lowered to the size of the tree if higher
+     * @return a new list containing the elements in the requested range, in order
+     */
+    public List<E> range(int fromIndex, int toIndex) {
+        int from = Math.max(fromIndex, 0);
+        int to = Math.min(toIndex, size());
+        List<E> result = new ArrayList<>(Math.max(to - from, 0));
+        if (from < to) {
+            collect(root, from, to, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return a new list containing all elements of this tree, in order
+     */
+    public List<E> toList() {
+        return range(0, size());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    //in order traversal that only descends into subtrees overlapping the requested range
+    private static <E> void collect(@Nullable Node<E> node, int from, int to, List<E> out) {
+        if (node == null || to <= 0 || from >= node.size) {
+            return;
+        }
+        int leftSize = size(node.left);
+        collect(node.left, from, to, out);
+        if (from <= leftSize && leftSize < to) {
+            out.add(node.value);
+        }
+        collect(node.right, from - leftSize - 1, to - leftSize - 1, out);
+    }
+
+    /**
+     * Splits a subtree by comparing to a key.
+     *
+     * @param inclusive whether elements equal to the key go to the left side
+     * @return [0]: elements lower than (or equal to, if inclusive) the key, [1]: all other elements
+     */
+    private Node<E>[] split(@Nullable Node<E> node, E key, boolean inclusive) {
+        Node<E>[] result = newPair();
+        if (node == null) {
+            return result;
+        }
+        int c = comparator.compare(node.value, key);
+        if (c < 0 || (inclusive && c == 0)) {
+            Node<E>[] sub = split(node.right, key, inclusive);
+            node.right = sub[0];
+            result[0] = node.update();
+            result[1] = sub[1];
+        } else {
+            Node<E>[] sub = split(node.left, key, inclusive);
+            node.left = sub[1];
+            result[0] = sub[0];
+            result[1] = node.update();
+        }
+        return result;
+    }
+
+    /**
+     * Splits a subtree by position.
+     *
+     * @return [0]: the first count elements, [1]: all other elements
+     */
+    private static <E> Node<E>[] splitAt(@Nullable Node<E> node, int count) {
+        Node<E>[] result = newPair();
+        if (node == null) {
+            return result;
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node<E>[] sub = splitAt(node.left, count);
+            node.left = sub[1];
+            result[0] = sub[0];
+            result[1] = node.update();
+        } else {
+            Node<E>[] sub = splitAt(node.right, count - leftSize - 1);
+            node.right = sub[0];
+            result[0] = node.update();
+            result[1] = sub[1];
+        }
+        return result;
+    }
+
+    //all elements of the left tree have to be lower than all elements of the right tree
+    @Nullable
+    private static <E> Node<E> merge(@Nullable Node<E> left, @Nullable Node<E> right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return left.update();
+        } else {
+            right.left = merge(left, right.left);
+            return right.update();
+        }
+    }
+
+    private static int size(@Nullable Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E>[] newPair() {
+        return (Node<E>[]) new Node[2];
+    }
+
+    private static class Node<E> {
+        private final E value;
+        private final int priority;
+        private int size = 1;
+        @Nullable
+        private Node<E> left;
+        @Nullable
+        private Node<E> right;
+
+        private Node(E value) {
+            this.value = value;
+            this.priority = ThreadLocalRandom.current().nextInt();
+        }
+
+        private Node<E> update() {
+            size = 1 + size(left) + size(right);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import fredboat.Config;
+import fredboat.audio.player.GuildPlayer;
+import fredboat.audio.player.PlayerRegistry;
+import fredboat.feature.I18n;
+import fredboat.messaging.CentralMessaging;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of a music player as it is written to music persistence snapshots:
+ * <pre>
+ * guild id, voice channel id (0 = none), text channel id (0 = none), paused, volume, repeat mode, shuffle,
+ * position of the playing track, has playing track, [playing track], queued track count, queued tracks
+ * </pre>
+ * Entries of the {@link QueueJournal} are applied on top of it when recovering from a crash. Applying them is
+ * idempotent, so entries that are already part of a snapshot may be applied again.
+ */
+class PersistedPlayer {
+
+    private final long guildId;
+    private long vcId = 0;
+    private long tcId = 0;
+    private boolean paused = false;
+    private float volume = PlayerRegistry.DEFAULT_VOLUME;
+    private RepeatMode repeatMode = RepeatMode.OFF;
+    private boolean shuffle = false;
+    private long position = 0;
+    @Nullable
+    private PersistedTrack playing = null;
+    //trackId -> track, in the order the tracks were queued
+    private final Map<Long, PersistedTrack> queue = new LinkedHashMap<>();
+
+    PersistedPlayer(long guildId) {
+        this.guildId = guildId;
+    }
+
+    static void write(DataOutputStream out, GuildPlayer player, @Nullable VoiceChannel vc, long tcId,
+                      AudioPlayerManager playerManager, ByteArrayOutputStream trackBuffer) throws IOException {
+        AudioTrackContext playing = player.getPlayingTrack();
+        List<AudioTrackContext> queued = player.getRemainingTracks();
+        if (playing != null && !queued.isEmpty() && queued.get(0) == playing) {
+            queued.remove(0); //the remaining tracks start with the playing one
+        }
+
+        out.writeLong(player.getGuildId());
+        out.writeLong(vc != null ? vc.getIdLong() : 0);
+        out.writeLong(tcId);
+        out.writeBoolean(player.isPaused());
+        out.writeFloat(player.getVolume());
+        out.writeUTF(player.getRepeatMode().name());
+        out.writeBoolean(player.isShuffle());
+        out.writeLong(playing != null ? player.getPosition() : 0);
+        out.writeBoolean(playing != null);
+        if (playing != null) {
+            PersistedTrack.write(out, playing, playerManager, trackBuffer);
+        }
+        out.writeInt(queued.size());
+        for (AudioTrackContext atc : queued) {
+            PersistedTrack.write(out, atc, playerManager, trackBuffer);
+        }
+    }
+
+    /**
+     * Writes this player again in the form it was read, for players that haven't been restored yet
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(guildId);
+        out.writeLong(vcId);
+        out.writeLong(tcId);
+        out.writeBoolean(paused);
+        out.writeFloat(volume);
+        out.writeUTF(repeatMode.name());
+        out.writeBoolean(shuffle);
+        out.writeLong(playing != null ? position : 0);
+        out.writeBoolean(playing != null);
+        if (playing != null) {
+            playing.write(out);
+        }
+        out.writeInt(queue.size());
+        for (PersistedTrack track : queue.values()) {
+            track.write(out);
+        }
+    }
+
+    static PersistedPlayer read(DataInputStream in) throws IOException {
+        PersistedPlayer player = new PersistedPlayer(in.readLong());
+        player.vcId = in.readLong();
+        player.tcId = in.readLong();
+        player.paused = in.readBoolean();
+        player.volume = in.readFloat();
+        player.repeatMode = RepeatMode.valueOf(in.readUTF());
+        player.shuffle = in.readBoolean();
+        player.position = in.readLong();
+        if (in.readBoolean()) {
+            player.playing = PersistedTrack.read(in);
+        }
+        int queued = in.readInt();
+        for (int i = 0; i < queued; i++) {
+            PersistedTrack track = PersistedTrack.read(in);
+            player.queue.put(track.getTrackId(), track);
+        }
+        return player;
+    }
+
+    long getGuildId() {
+        return guildId;
+    }
+
+    long getVoiceChannelId() {
+        return vcId;
+    }
+
+    int getTrackCount() {
+        return queue.size() + (playing != null ? 1 : 0);
+    }
+
+    void add(PersistedTrack track) {
+        queue.putIfAbsent(track.getTrackId(), track);
+    }
+
+    void remove(long trackId) {
+        queue.remove(trackId);
+    }
+
+    void reshuffled(long trackId, int rand) {
+        PersistedTrack track = queue.get(trackId);
+        if (track != null) {
+            track.setRand(rand);
+        }
+    }
+
+    void clear() {
+        queue.clear();
+        playing = null;
+    }
+
+    void playing(@Nullable PersistedTrack track) {
+        playing = track;
+        position = 0;
+        if (track != null) {
+            queue.remove(track.getTrackId());
+        }
+    }
+
+    void settings(RepeatMode repeatMode, boolean shuffle) {
+        this.repeatMode = repeatMode;
+        this.shuffle = shuffle;
+    }
+
+    void checkpoint(long vcId, long tcId, boolean paused, float volume, long position) {
+        this.vcId = vcId;
+        this.tcId = tcId;
+        this.paused = paused;
+        this.volume = volume;
+        this.position = position;
+    }
+
+    /**
+     * Recreates the music player of the guild
+     *
+     * @return true if the player was restored, false if its guild or all of its tracks are gone
+     */
+    boolean restore(JDA jda, AudioPlayerManager playerManager) throws IOException {
+        Guild guild = jda.getGuildById(guildId);
+        if (guild == null || getTrackCount() == 0) {
+            return false;
+        }
+        @Nullable VoiceChannel vc = jda.getVoiceChannelById(vcId);
+        @Nullable TextChannel tc = jda.getTextChannelById(tcId);
+
+        @Nullable AudioTrackContext playingAtc = null;
+        if (playing != null) {
+            playingAtc = playing.toContext(playerManager, guildId, ownerOf(guild, playing), position);
+        }
+        List<AudioTrackContext> tracks = new ArrayList<>(queue.size());
+        for (PersistedTrack track : queue.values()) {
+            //queued tracks stay encoded until they get close to being played
+            AudioTrackContext atc = track.toContext(playerManager, guildId, ownerOf(guild, track), -1);
+            if (atc != null) {
+                tracks.add(atc);
+            }
+        }
+
+        GuildPlayer player = PlayerRegistry.getOrCreate(guild);
+
+        if (vc != null) {
+            player.joinChannel(vc);
+        }
+        if (tc != null) {
+            player.setCurrentTC(tc);
+        }
+        if(Config.CONFIG.getDistribution().volumeSupported()) {
+            player.setVolume(volume);
+        }
+        player.setRepeatMode(repeatMode);
+        //the playing track is started on its own first, so that it resumes no matter the shuffle
+        if (playingAtc != null) {
+            player.queueAll(Collections.singletonList(playingAtc));
+        }
+        player.setShuffle(shuffle);
+        player.queueAll(tracks);
+        player.setPause(paused);
+
+        if (tc != null) {
+            int restored = tracks.size() + (playingAtc != null ? 1 : 0);
+            CentralMessaging.sendMessage(tc, MessageFormat.format(I18n.get(guild).getString("reloadSuccess"), restored));
+        }
+        return true;
+    }
+
+    private static long ownerOf(Guild guild, PersistedTrack track) {
+        if (guild.getMemberById(track.getUserId()) == null) {
+            //member left the guild meanwhile, set ourselves as the one who added the song
+            return guild.getSelfMember().getUser().getIdLong();
+        }
+        return track.getUserId();
+    }
+}
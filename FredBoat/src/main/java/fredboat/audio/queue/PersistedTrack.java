@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A queued track as it is written to music persistence snapshots and the queue journal:
+ * <pre>
+ * flags, track id, user id, [shuffle key] if flagged, title hash, duration, is stream, length prefixed encoded track,
+ * [start position, end position, title] if flagged as split
+ * </pre>
+ * Tracks written before shuffle keys were persisted lack the flag, they get a fresh shuffle key when restored.
+ */
+class PersistedTrack {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(PersistedTrack.class);
+
+    private static final byte FLAG_SPLIT = 1;
+    private static final byte FLAG_SHUFFLE_KEY = 2;
+    private static final int NO_SHUFFLE_KEY = -1;
+
+    private final long trackId;
+    private final boolean split;
+    private final long userId;
+    private int rand;
+    private final int titleHash;
+    private final long duration;
+    private final boolean isStream;
+    private final byte[] encoded;
+    private final long startPos;
+    private final long endPos;
+    @Nullable
+    private final String title;
+
+    private PersistedTrack(long trackId, boolean split, long userId, int rand, int titleHash, long duration,
+                           boolean isStream, byte[] encoded, long startPos, long endPos, @Nullable String title) {
+        this.trackId = trackId;
+        this.split = split;
+        this.userId = userId;
+        this.rand = rand;
+        this.titleHash = titleHash;
+        this.duration = duration;
+        this.isStream = isStream;
+        this.encoded = encoded;
+        this.startPos = startPos;
+        this.endPos = endPos;
+        this.title = title;
+    }
+
+    /**
+     * @param buffer reused for encoding tracks
+     */
+    static void write(DataOutputStream out, AudioTrackContext atc, AudioPlayerManager playerManager,
+                      ByteArrayOutputStream buffer) throws IOException {
+        boolean split = atc instanceof SplitAudioTrackContext;
+        out.writeByte((split ? FLAG_SPLIT : 0) | FLAG_SHUFFLE_KEY);
+        out.writeLong(atc.getTrackId());
+        out.writeLong(atc.getUserId());
+        out.writeInt(atc.getRand());
+
+        if (atc instanceof EncodedAudioTrackContext) {
+            //no need to decode it just to encode it again
+            EncodedAudioTrackContext encoded = (EncodedAudioTrackContext) atc;
+            out.writeInt(encoded.getTitleHash());
+            out.writeLong(encoded.getEffectiveDuration());
+            out.writeBoolean(encoded.isStream());
+            out.writeInt(encoded.getEncoded().length);
+            out.write(encoded.getEncoded());
+        } else {
+            AudioTrack at = atc.getTrack();
+            out.writeInt(at.getInfo().title.hashCode());
+            out.writeLong(at.getDuration());
+            out.writeBoolean(at.getInfo().isStream);
+            buffer.reset();
+            playerManager.encodeTrack(new MessageOutput(buffer), at);
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        }
+
+        if (split) {
+            out.writeLong(atc.getStartPosition());
+            out.writeLong(atc.getStartPosition() + atc.getEffectiveDuration());
+            out.writeUTF(atc.getEffectiveTitle());
+        }
+    }
+
+    /**
+     * Writes this track again in the form it was read, for players that haven't been restored yet
+     */
+    void write(DataOutputStream out) throws IOException {
+        boolean hasShuffleKey = rand != NO_SHUFFLE_KEY;
+        out.writeByte((split ? FLAG_SPLIT : 0) | (hasShuffleKey ? FLAG_SHUFFLE_KEY : 0));
+        out.writeLong(trackId);
+        out.writeLong(userId);
+        if (hasShuffleKey) {
+            out.writeInt(rand);
+        }
+        out.writeInt(titleHash);
+        out.writeLong(duration);
+        out.writeBoolean(isStream);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+
+        if (split) {
+            out.writeLong(startPos);
+            out.writeLong(endPos);
+            out.writeUTF(title != null ? title : "");
+        }
+    }
+
+    static PersistedTrack read(DataInputStream in) throws IOException {
+        byte flags = in.readByte();
+        boolean split = (flags & FLAG_SPLIT) != 0;
+        long trackId = in.readLong();
+        long userId = in.readLong();
+        int rand = (flags & FLAG_SHUFFLE_KEY) != 0 ? in.readInt() : NO_SHUFFLE_KEY;
+        int titleHash = in.readInt();
+        long duration = in.readLong();
+        boolean isStream = in.readBoolean();
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+
+        long startPos = 0;
+        long endPos = 0;
+        String title = null;
+        if (split) {
+            startPos = in.readLong();
+            endPos = in.readLong();
+            title = in.readUTF();
+        }
+        return new PersistedTrack(trackId, split, userId, rand, titleHash, duration, isStream, encoded, startPos, endPos,
+                title);
+    }
+
+    /**
+     * @param userId   the user that gets to own the track, which may differ from the persisted one if that user is gone
+     * @param position position to start the track at, or -1 to keep it in its encoded form until it gets played
+     * @return the context, or null if the track could not be decoded
+     */
+    @Nullable
+    AudioTrackContext toContext(AudioPlayerManager playerManager, long guildId, long userId, long position)
+            throws IOException {
+        AudioTrackContext atc = decode(playerManager, guildId, userId, position);
+        if (atc != null && rand != NO_SHUFFLE_KEY) {
+            atc.setRand(rand); //keeps the shuffled order
+        }
+        return atc;
+    }
+
+    @Nullable
+    private AudioTrackContext decode(AudioPlayerManager playerManager, long guildId, long userId, long position)
+            throws IOException {
+        if (!split && position < 0) {
+            return EncodedAudioTrackContext.restore(encoded, titleHash, duration, isStream, guildId, userId);
+        }
+
+        DecodedTrackHolder holder = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+        if (holder == null || holder.decodedTrack == null) {
+            log.error("Loaded track that was null! Skipping...");
+            return null;
+        }
+        AudioTrack at = holder.decodedTrack;
+        if (split) {
+            //noinspection ConstantConditions title is always read for split tracks
+            AudioTrackContext atc = new SplitAudioTrackContext(at, userId, guildId, startPos, endPos, title);
+            at.setPosition(startPos + Math.max(position, 0));
+            return atc;
+        } else {
+            at.setPosition(position);
+            return new AudioTrackContext(at, guildId, userId);
+        }
+    }
+
+    //a reshuffle of the queue after the track was persisted
+    void setRand(int rand) {
+        this.rand = rand;
+    }
+
+    long getTrackId() {
+        return trackId;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+}
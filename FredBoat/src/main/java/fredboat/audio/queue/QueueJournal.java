@@ -0,0 +1,592 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.Config;
+import fredboat.audio.player.AbstractPlayer;
+import fredboat.audio.player.GuildPlayer;
+import fredboat.audio.player.PlayerRegistry;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * An append only journal of queue mutations, so that a crash loses at most a few seconds of queue state instead of
+ * all of it.
+ * <p>
+ * Mutations are only put into a queue by the threads making them. Every second, a thread of the journal's own writes
+ * them to the journal segment of their shard, adds position checkpoints of the playing players and syncs the segments
+ * to disk. Entries are written as length, crc32, type, guild id, payload; a torn or corrupted entry ends the replay of
+ * its segment.
+ * <p>
+ * Every now and then the journal of a shard is compacted: a new segment is started, a snapshot of the shard's players
+ * is written by the {@link MusicPersistenceHandler} and the older segments are deleted. Snapshots remember the first
+ * segment written after them, and recovering a shard replays the segments from there on top of its snapshot.
+ * Compactions run on another thread, one shard at a time, spread evenly over the compaction interval, so writing a
+ * snapshot never holds up the flushing.
+ * <p>
+ * Entries of a shard are only recorded once its players have been restored, see {@link #goLive(int)}.
+ */
+public class QueueJournal {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(QueueJournal.class);
+
+    public static final QueueJournal ins = new QueueJournal();
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte PLAYING = 4;
+    private static final byte SETTINGS = 5;
+    private static final byte CHECKPOINT = 6;
+    private static final byte RESHUFFLE = 7;
+
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 5000;
+    private static final long COMPACTION_SIZE = 8 * 1024 * 1024; //bytes written to a segment
+    private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d+)-(\\d+)\\.log");
+
+    private volatile boolean enabled = false;
+    private volatile File dir;
+    private int numShards;
+    //shards whose players have been restored, entries are only recorded for these
+    private final Set<Integer> liveShards = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    //shards waiting to be compacted, so a shard is queued at most once
+    private final Set<Integer> compactionsQueued = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "queue-journal"));
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "queue-journal-compaction"));
+    //only used by the compactor
+    private int nextShardToCompact = 0;
+
+    //the following are guarded by this
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    private long nextSequence = 0;
+    private long lastCheckpoint = 0;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final ByteArrayOutputStream trackBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+
+    private QueueJournal() {
+    }
+
+    public synchronized void start(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            log.error("Failed to create the queue journal directory {}, not journaling queues", dir);
+            return;
+        }
+        this.dir = dir;
+        this.numShards = Config.CONFIG.getNumShards();
+        //sequences have to keep growing across restarts, as snapshots refer to them even when no segments are left
+        nextSequence = System.currentTimeMillis();
+        for (File segment : listSegments(-1)) {
+            nextSequence = Math.max(nextSequence, sequenceOf(segment) + 1);
+        }
+        enabled = true;
+
+        flusher.scheduleWithFixedDelay(this::flushSafely, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        long compactionSpacing = Math.max(1, COMPACTION_INTERVAL_MILLIS / Math.max(1, numShards));
+        compactor.scheduleWithFixedDelay(this::compactNextShard, compactionSpacing, compactionSpacing,
+                TimeUnit.MILLISECONDS);
+        log.info("Journaling queues to {}", dir);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // ################################################################################
+    // ##                     Recording
+    // ################################################################################
+
+    void added(AudioTrackContext atc) {
+        enqueue(atc.getGuildId(), out -> {
+            out.writeByte(ADD);
+            out.writeLong(atc.getGuildId());
+            PersistedTrack.write(out, atc, AbstractPlayer.getPlayerManager(), trackBuffer);
+        });
+    }
+
+    void removed(long guildId, long trackId) {
+        enqueue(guildId, out -> {
+            out.writeByte(REMOVE);
+            out.writeLong(guildId);
+            out.writeLong(trackId);
+        });
+    }
+
+    void cleared(long guildId) {
+        enqueue(guildId, out -> {
+            out.writeByte(CLEAR);
+            out.writeLong(guildId);
+        });
+    }
+
+    void playing(long guildId, @Nullable AudioTrackContext atc) {
+        enqueue(guildId, out -> {
+            out.writeByte(PLAYING);
+            out.writeLong(guildId);
+            out.writeBoolean(atc != null);
+            if (atc != null) {
+                PersistedTrack.write(out, atc, AbstractPlayer.getPlayerManager(), trackBuffer);
+            }
+        });
+    }
+
+    /**
+     * @param trackIds ids of the queued tracks
+     * @param rands    their new shuffle keys, in the same order
+     */
+    void reshuffled(long guildId, long[] trackIds, int[] rands) {
+        enqueue(guildId, out -> {
+            out.writeByte(RESHUFFLE);
+            out.writeLong(guildId);
+            out.writeInt(trackIds.length);
+            for (int i = 0; i < trackIds.length; i++) {
+                out.writeLong(trackIds[i]);
+                out.writeInt(rands[i]);
+            }
+        });
+    }
+
+    public void settingsChanged(long guildId, RepeatMode repeatMode, boolean shuffle) {
+        enqueue(guildId, out -> {
+            out.writeByte(SETTINGS);
+            out.writeLong(guildId);
+            out.writeUTF(repeatMode.name());
+            out.writeBoolean(shuffle);
+        });
+    }
+
+    private void enqueue(long guildId, EntryWriter writer) {
+        if (enabled && liveShards.contains(shardOf(guildId))) {
+            pending.add(new Entry(guildId, writer));
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush the queue journal", e);
+        }
+    }
+
+    /**
+     * Writes the pending entries, checkpoints the playing players if it's time to, syncs the written segments to disk
+     * and queues the compaction of shards whose segments grew too large.
+     */
+    synchronized void flush() {
+        if (!enabled) {
+            return;
+        }
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            try {
+                record.reset();
+                entry.writer.write(recordOut);
+                append(shardOf(entry.guildId));
+            } catch (Exception e) {
+                log.error("Failed to journal an entry of guild {}", entry.guildId, e);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+            lastCheckpoint = now;
+            checkpoint();
+        }
+
+        for (Map.Entry<Integer, Segment> e : segments.entrySet()) {
+            Segment segment = e.getValue();
+            try {
+                segment.sync();
+            } catch (IOException ex) {
+                log.error("Failed to sync queue journal segment {}", segment.file, ex);
+            }
+            if (segment.size >= COMPACTION_SIZE) {
+                requestCompaction(e.getKey());
+            }
+        }
+    }
+
+    private void checkpoint() {
+        for (Map.Entry<Long, GuildPlayer> e : PlayerRegistry.getRegistry().entrySet()) {
+            int shardId = shardOf(e.getKey());
+            GuildPlayer player = e.getValue();
+            if (!liveShards.contains(shardId) || player.getTrackCount() == 0) {
+                continue;
+            }
+            try {
+                VoiceChannel vc = player.getCurrentVoiceChannel();
+                record.reset();
+                recordOut.writeByte(CHECKPOINT);
+                recordOut.writeLong(e.getKey());
+                recordOut.writeLong(vc != null ? vc.getIdLong() : 0);
+                recordOut.writeLong(player.getCurrentTCId());
+                recordOut.writeBoolean(player.isPaused());
+                recordOut.writeFloat(player.getVolume());
+                recordOut.writeLong(player.getPosition());
+                append(shardId);
+            } catch (Exception ex) {
+                log.error("Failed to checkpoint the player of guild {}", e.getKey(), ex);
+            }
+        }
+    }
+
+    //appends the current record to the segment of the shard
+    private void append(int shardId) throws IOException {
+        Segment segment = segments.get(shardId);
+        if (segment == null) {
+            segment = new Segment(new File(dir, "journal-" + shardId + "-" + nextSequence++ + ".log"));
+            segments.put(shardId, segment);
+        }
+        crc.reset();
+        crc.update(record.toByteArray());
+        segment.out.writeInt(record.size());
+        segment.out.writeInt((int) crc.getValue());
+        record.writeTo(segment.out);
+        segment.size += record.size() + 8;
+        segment.dirty = true;
+    }
+
+    // ################################################################################
+    // ##                     Compaction
+    // ################################################################################
+
+    /**
+     * Starts recording the entries of a shard, after its players have been restored, and compacts its journal
+     */
+    public void goLive(int shardId) {
+        if (!enabled) {
+            return;
+        }
+        liveShards.add(shardId);
+        requestCompaction(shardId);
+    }
+
+    private void requestCompaction(int shardId) {
+        if (compactionsQueued.add(shardId)) {
+            compactor.execute(() -> {
+                compactionsQueued.remove(shardId);
+                compact(shardId);
+            });
+        }
+    }
+
+    //compacts the live shards in turns, each of them about once per compaction interval
+    private void compactNextShard() {
+        for (int i = 0; i < numShards; i++) {
+            int shardId = nextShardToCompact;
+            nextShardToCompact = (nextShardToCompact + 1) % numShards;
+            boolean hasSegment;
+            synchronized (this) {
+                hasSegment = segments.containsKey(shardId);
+            }
+            if (hasSegment) {
+                try {
+                    compact(shardId);
+                } catch (Exception e) {
+                    log.error("Failed to compact the queue journal of shard {}", shardId, e);
+                }
+                return;
+            }
+        }
+    }
+
+    //only called by the compactor
+    private void compact(int shardId) {
+        long started = System.currentTimeMillis();
+        long replayFrom;
+        List<File> old;
+        synchronized (this) {
+            if (!enabled) {
+                return;
+            }
+            Segment current = segments.remove(shardId);
+            if (current != null) {
+                current.close();
+            }
+            //the next segment of this shard starts with this sequence, everything before it is part of the snapshot
+            replayFrom = nextSequence;
+            old = listSegments(shardId);
+        }
+        //entries flushed while the snapshot is written go to newer segments, which are replayed on top of it
+        List<GuildPlayer> players = new ArrayList<>();
+        for (Map.Entry<Long, GuildPlayer> e : PlayerRegistry.getRegistry().entrySet()) {
+            if (shardOf(e.getKey()) == shardId && e.getValue().getTrackCount() > 0) {
+                players.add(e.getValue());
+            }
+        }
+        try {
+            MusicPersistenceHandler.writeSnapshot(dir, shardId, players, Collections.emptyList(), null, replayFrom);
+        } catch (Exception e) {
+            log.error("Failed to compact the queue journal of shard {}, keeping its segments", shardId, e);
+            return;
+        }
+        deleteAll(old);
+        log.debug("Compacted the queue journal of shard {} into a snapshot of {} players in {}ms",
+                shardId, players.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Writes the pending entries and closes all segments, no further entries are recorded. Used on shutdown, before
+     * the final snapshots are written.
+     */
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        //a compaction finishing later could replace the final snapshots with older ones
+        compactor.shutdown();
+        flusher.shutdown();
+        try {
+            if (!compactor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for a queue journal compaction to finish");
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for a queue journal compaction to finish", e);
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            enabled = false;
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * Deletes the journal segments of a shard, after a snapshot of its current state has been written.
+     */
+    void deleteSegments(int shardId) {
+        if (dir != null) {
+            deleteAll(listSegments(shardId));
+        }
+    }
+
+    // ################################################################################
+    // ##                     Recovery
+    // ################################################################################
+
+    /**
+     * Applies the journal of a shard to the players restored from its snapshot
+     *
+     * @param replayFrom the first segment sequence that is not part of the snapshot
+     * @param players    guild id -> player, players that only appear in the journal are added
+     */
+    void replay(int shardId, long replayFrom, Map<Long, PersistedPlayer> players) {
+        if (dir == null) {
+            return;
+        }
+        for (File file : listSegments(shardId)) {
+            if (sequenceOf(file) < replayFrom) {
+                continue;
+            }
+            int applied = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                CRC32 checksum = new CRC32();
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break; //regular end of the segment
+                    }
+                    int expected = in.readInt();
+                    byte[] entry = new byte[length];
+                    in.readFully(entry);
+                    checksum.reset();
+                    checksum.update(entry);
+                    if ((int) checksum.getValue() != expected) {
+                        log.warn("Corrupted entry in queue journal segment {}, skipping the rest of it", file);
+                        break;
+                    }
+                    apply(new DataInputStream(new ByteArrayInputStream(entry)), players);
+                    applied++;
+                }
+            } catch (EOFException e) {
+                log.warn("Queue journal segment {} ends with a torn entry, skipping it", file);
+            } catch (IOException e) {
+                log.error("Failed to read queue journal segment {}", file, e);
+            }
+            log.info("Replayed {} entries of queue journal segment {}", applied, file);
+        }
+    }
+
+    private static void apply(DataInputStream in, Map<Long, PersistedPlayer> players) throws IOException {
+        byte type = in.readByte();
+        long guildId = in.readLong();
+        PersistedPlayer player = players.computeIfAbsent(guildId, PersistedPlayer::new);
+        switch (type) {
+            case ADD:
+                player.add(PersistedTrack.read(in));
+                break;
+            case REMOVE:
+                player.remove(in.readLong());
+                break;
+            case CLEAR:
+                player.clear();
+                break;
+            case PLAYING:
+                player.playing(in.readBoolean() ? PersistedTrack.read(in) : null);
+                break;
+            case SETTINGS:
+                player.settings(RepeatMode.valueOf(in.readUTF()), in.readBoolean());
+                break;
+            case CHECKPOINT:
+                player.checkpoint(in.readLong(), in.readLong(), in.readBoolean(), in.readFloat(), in.readLong());
+                break;
+            case RESHUFFLE:
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    player.reshuffled(in.readLong(), in.readInt());
+                }
+                break;
+            default:
+                throw new IOException("Unknown queue journal entry type " + type);
+        }
+    }
+
+    // ################################################################################
+    // ##                     Helpers
+    // ################################################################################
+
+    private int shardOf(long guildId) {
+        return (int) ((guildId >> 22) % numShards);
+    }
+
+    /**
+     * @param shardId the shard to list the segments of, or -1 for all of them
+     * @return segment files, oldest first
+     */
+    private List<File> listSegments(int shardId) {
+        File[] files = dir.listFiles((d, name) -> {
+            Matcher matcher = SEGMENT_NAME.matcher(name);
+            return matcher.matches() && (shardId < 0 || Integer.parseInt(matcher.group(1)) == shardId);
+        });
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, Comparator.comparingLong(QueueJournal::sequenceOf));
+        return Arrays.asList(files);
+    }
+
+    private static long sequenceOf(File segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(2)) : -1;
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            if (!file.delete()) {
+                log.warn("Failed to delete queue journal segment {}", file);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class Entry {
+        private final long guildId;
+        private final EntryWriter writer;
+
+        private Entry(long guildId, EntryWriter writer) {
+            this.guildId = guildId;
+            this.writer = writer;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+        private long size = 0;
+        private boolean dirty = false;
+
+        private Segment(File file) throws IOException {
+            this.file = file;
+            this.fileOut = new FileOutputStream(file, true);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        }
+
+        private void sync() throws IOException {
+            if (dirty) {
+                out.flush();
+                fileOut.getChannel().force(false);
+                dirty = false;
+            }
+        }
+
+        private void close() {
+            try {
+                sync();
+                out.close();
+            } catch (IOException e) {
+                log.error("Failed to close queue journal segment {}", file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps single tracks resolved by lavaplayer in their encoded form, keyed by the canonical identifier they were
+ * loaded with, so loading a popular link again skips the page fetches and cipher work of resolving it. Every lookup
+ * decodes a fresh track, as lavaplayer tracks can only be played once.
+ * <p>
+ * Live streams are not kept, as they end, and neither are urls that are signed to expire after a while.
+ */
+class ResolvedTrackCache {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(ResolvedTrackCache.class);
+
+    static final ResolvedTrackCache ins = new ResolvedTrackCache();
+
+    //query parameters of signed urls of common cdns and storage providers
+    private static final Set<String> SIGNED_URL_PARAMETERS = new HashSet<>(Arrays.asList(
+            "expires", "expire", "signature", "sig", "token", "policy", "key-pair-id",
+            "x-amz-expires", "x-amz-signature", "x-goog-expires", "x-goog-signature"));
+
+    //encoded tracks take a few hundred bytes each
+    private final Cache<String, byte[]> tracks = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumSize(10000)
+            .expireAfterWrite(30, TimeUnit.MINUTES)
+            .build();
+
+    private ResolvedTrackCache() {
+        Metrics.instance().cacheMetrics.addCache("resolvedTracks", tracks);
+    }
+
+    /**
+     * @return a fresh instance of the track resolved for the identifier, or null if it is not cached
+     */
+    @Nullable
+    AudioTrack get(AudioPlayerManager playerManager, String identifier) {
+        byte[] encoded = tracks.getIfPresent(identifier);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            DecodedTrackHolder holder = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+            if (holder != null && holder.decodedTrack != null) {
+                return holder.decodedTrack;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to decode cached track of {}", identifier, e);
+        }
+        tracks.invalidate(identifier);
+        return null;
+    }
+
+    /**
+     * Keeps the track resolved for the identifier, unless it is a live stream or loaded from a url that expires.
+     */
+    void put(AudioPlayerManager playerManager, String identifier, AudioTrack track) {
+        if (track.getInfo().isStream) {
+            Metrics.resolvedTracksNotCached.labels("stream").inc();
+            return;
+        }
+        if (isSigned(identifier) || isSigned(track.getInfo().uri)) {
+            Metrics.resolvedTracksNotCached.labels("signed_url").inc();
+            return;
+        }
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            playerManager.encodeTrack(new MessageOutput(baos), track);
+            tracks.put(identifier, baos.toByteArray());
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not encode track {}, not caching it", track.getIdentifier(), e);
+            Metrics.resolvedTracksNotCached.labels("not_encodable").inc();
+        }
+    }
+
+    /**
+     * @return true if the url has query parameters that sign it, which usually means that it expires
+     */
+    static boolean isSigned(@Nullable String url) {
+        if (url == null) {
+            return false;
+        }
+        int fragmentStart = url.indexOf('#');
+        String withoutFragment = fragmentStart < 0 ? url : url.substring(0, fragmentStart);
+        int queryStart = withoutFragment.indexOf('?');
+        if (queryStart < 0) {
+            return false;
+        }
+        String query = withoutFragment.substring(queryStart + 1);
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            if (SIGNED_URL_PARAMETERS.contains(name.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.FredBoat;
+import fredboat.feature.metrics.Metrics;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores players after a restart or the revival of a shard, most listened first.
+ * <p>
+ * Every restore starts with a voice connect, which is a gateway event counting towards the per shard limit of Discord,
+ * so the restores of a shard are started at a fixed pace. Decoding the playing track, seeking and queueing happen on a
+ * pool of workers shared by all shards, so slow restores of one guild don't hold up the others. Players whose voice
+ * channels have the most listeners are restored first.
+ * <p>
+ * Progress is logged and published as metrics, together with the time each player spent waiting to be restored.
+ * <p>
+ * On shutdown the restores of a shard are stopped, and the persisted players of those that haven't finished are handed
+ * back to be saved again.
+ */
+public class RestoreScheduler {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(RestoreScheduler.class);
+
+    public static final RestoreScheduler ins = new RestoreScheduler();
+
+    //stays well below the 120 gateway events per minute and shard, which are shared with presences and heartbeats
+    private static final long CONNECT_INTERVAL_MILLIS = 750;
+    private static final int MAX_IN_FLIGHT_PER_SHARD = 4;
+    private static final int PROGRESS_LOG_INTERVAL = 50; //restores
+
+    private static final Comparator<Restore> MOST_LISTENED_FIRST = Comparator.<Restore>comparingInt(r -> -r.listeners)
+            .thenComparingLong(r -> r.sequence);
+
+    private final ScheduledExecutorService pacer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "player-restore-pacer"));
+    private final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()),
+            runnable -> new Thread(runnable, "player-restore"));
+
+    private final Map<Integer, ShardRestore> shards = new ConcurrentHashMap<>();
+
+    private RestoreScheduler() {
+    }
+
+    /**
+     * Queues restores of a shard. They are started once the current restores of the shard, if any, have been started
+     * as well, unless they have more listeners.
+     *
+     * @param whenDone called once all restores of the shard are done, may be null
+     */
+    public void schedule(FredBoat shard, List<Restore> restores, @Nullable Runnable whenDone) {
+        int shardId = shard.getShardInfo().getShardId();
+        JDA jda = shard.getJda();
+        for (Restore restore : restores) {
+            restore.listeners = countListeners(jda.getVoiceChannelById(restore.vcId));
+        }
+        ShardRestore shardRestore = shards.compute(shardId, (id, current) -> {
+            ShardRestore result = current != null && !current.isFinished() ? current : new ShardRestore(shard);
+            result.add(restores, whenDone);
+            return result;
+        });
+        log.info("Scheduled {} restores for shard {}, {} pending", restores.size(), shardId, shardRestore.getPending());
+    }
+
+    /**
+     * Stops restoring a shard, its remaining restores are dropped and its callbacks are never called.
+     *
+     * @return the persisted players of the restores of the shard that are waiting or running
+     */
+    List<PersistedPlayer> stop(int shardId) {
+        ShardRestore shardRestore = shards.remove(shardId);
+        if (shardRestore == null) {
+            return new ArrayList<>();
+        }
+        return shardRestore.stop();
+    }
+
+    /**
+     * @return amount of restores of all shards that are waiting or running
+     */
+    public int getPending() {
+        int pending = 0;
+        for (ShardRestore shardRestore : shards.values()) {
+            pending += shardRestore.getPending();
+        }
+        return pending;
+    }
+
+    private static int countListeners(@Nullable VoiceChannel vc) {
+        if (vc == null) {
+            return 0;
+        }
+        int listeners = 0;
+        for (Member member : vc.getMembers()) {
+            if (!member.getUser().isBot()) {
+                listeners++;
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * Restores something of a guild that starts with connecting to a voice channel
+     */
+    public static class Restore {
+        private final long guildId;
+        private final long vcId;
+        private final Action action;
+        @Nullable
+        private final PersistedPlayer persisted;
+        //set when scheduled
+        private int listeners = 0;
+        private long sequence = 0;
+        private long scheduled = 0;
+
+        /**
+         * @param vcId the voice channel that is going to be joined, its listeners decide the priority of this restore
+         */
+        public Restore(long guildId, long vcId, Action action) {
+            this(guildId, vcId, action, null);
+        }
+
+        /**
+         * @param persisted the player being restored, it's saved again if the restore hasn't finished on shutdown
+         */
+        Restore(long guildId, long vcId, Action action, @Nullable PersistedPlayer persisted) {
+            this.guildId = guildId;
+            this.vcId = vcId;
+            this.action = action;
+            this.persisted = persisted;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        /**
+         * @param jda current JDA instance of the shard
+         * @return true if something was restored, false if there was nothing left to restore
+         */
+        boolean restore(JDA jda) throws Exception;
+    }
+
+    private class ShardRestore {
+        private final FredBoat shard;
+        private final int shardId;
+
+        //the following are guarded by this
+        private final PriorityQueue<Restore> queue = new PriorityQueue<>(MOST_LISTENED_FIRST);
+        private final List<Runnable> whenDone = new ArrayList<>();
+        private final Set<Restore> running = new HashSet<>();
+        private long nextSequence = 0;
+        private int done = 0;
+        private int total = 0;
+        private long started = 0;
+        private boolean finished = false;
+        @Nullable
+        private ScheduledFuture<?> ticker = null;
+
+        private ShardRestore(FredBoat shard) {
+            this.shard = shard;
+            this.shardId = shard.getShardInfo().getShardId();
+        }
+
+        private synchronized void add(List<Restore> restores, @Nullable Runnable callback) {
+            long now = System.currentTimeMillis();
+            for (Restore restore : restores) {
+                restore.sequence = nextSequence++;
+                restore.scheduled = now;
+                queue.add(restore);
+            }
+            total += restores.size();
+            Metrics.playerRestoresPending.inc(restores.size());
+            if (callback != null) {
+                whenDone.add(callback);
+            }
+            if (ticker == null) {
+                started = now;
+                ticker = pacer.scheduleAtFixedRate(this::tick, 0, CONNECT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized boolean isFinished() {
+            return finished;
+        }
+
+        private synchronized int getPending() {
+            return queue.size() + running.size();
+        }
+
+        //starts the next restore if the shard has capacity for it, and wraps up once everything is done
+        private void tick() {
+            synchronized (this) {
+                if (!queue.isEmpty()) {
+                    if (running.size() < MAX_IN_FLIGHT_PER_SHARD) {
+                        Restore restore = queue.poll();
+                        running.add(restore);
+                        workers.submit(() -> run(restore));
+                    }
+                    return;
+                }
+                if (!running.isEmpty() || finished) {
+                    return;
+                }
+                finish();
+            }
+            //outside of the lock, schedule() locks the map before this
+            shards.remove(shardId, this);
+        }
+
+        private void run(Restore restore) {
+            String result;
+            try {
+                result = restore.action.restore(shard.getJda()) ? "restored" : "skipped";
+            } catch (Exception e) {
+                log.error("Failed to restore the player of guild {}", restore.guildId, e);
+                result = "failed";
+            }
+            Metrics.playerRestores.labels(result).inc();
+            Metrics.playerRestoreLatency.observe((System.currentTimeMillis() - restore.scheduled) / 1000.0);
+            Metrics.playerRestoresPending.dec();
+
+            synchronized (this) {
+                running.remove(restore);
+                done++;
+                if (done % PROGRESS_LOG_INTERVAL == 0) {
+                    log.info("Restored {}/{} players of shard {}", done, total, shardId);
+                }
+            }
+        }
+
+        private synchronized List<PersistedPlayer> stop() {
+            List<PersistedPlayer> unfinished = new ArrayList<>();
+            for (Restore restore : running) {
+                if (restore.persisted != null) {
+                    unfinished.add(restore.persisted);
+                }
+            }
+            for (Restore restore : queue) {
+                if (restore.persisted != null) {
+                    unfinished.add(restore.persisted);
+                }
+            }
+            Metrics.playerRestoresPending.dec(queue.size());
+            queue.clear();
+            whenDone.clear();
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            if (!finished) {
+                finished = true;
+                log.info("Stopped restoring shard {} after {}/{} restores", shardId, done, total);
+            }
+            return unfinished;
+        }
+
+        private void finish() {
+            finished = true;
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            log.info("Finished {} restores of shard {} in {}ms", total, shardId, System.currentTimeMillis() - started);
+            for (Runnable callback : whenDone) {
+                workers.submit(() -> {
+                    try {
+                        callback.run();
+                    } catch (Exception e) {
+                        log.error("Exception after restoring shard {}", shardId, e);
+                    }
+                });
+            }
+            whenDone.clear();
+        }
+    }
+}
@@ -25,18 +25,44 @@
 
 package fredboat.audio.queue;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SimpleTrackProvider extends AbstractTrackProvider {
 
-    private volatile ConcurrentLinkedQueue<AudioTrackContext> queue = new ConcurrentLinkedQueue<>();
+    //the queue is kept in two orders at the same time, so that neither reading it nor toggling shuffle require a sort
+    private final OrderStatisticTree<QueueEntry> queue = new OrderStatisticTree<>(QueueEntry.INSERTION_ORDER);
+    private final OrderStatisticTree<QueueEntry> shuffledQueue = new OrderStatisticTree<>(QueueEntry.SHUFFLE_ORDER);
+    //trackId -> entry, and userId -> ids of the tracks queued by that user
+    private final Long2ObjectOpenHashMap<QueueEntry> entries = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<LongSet> userTracks = new Long2ObjectOpenHashMap<>();
+    private long nextSequence = 0;
     private AudioTrackContext lastTrack = null;
-    private List<AudioTrackContext> cachedShuffledQueue = new ArrayList<>();
-    private boolean shouldUpdateShuffledQueue = true;
+
+    //running totals over the queued tracks, updated whenever an entry is added or removed
+    private long durationMillis = 0;
+    private int streams = 0;
+
+    //mutations of the queue are recorded here, so it can be recovered after a crash
+    @Nullable
+    private final QueueJournal journal;
+    private final long guildId;
+
+    public SimpleTrackProvider() {
+        this(null, 0);
+    }
+
+    public SimpleTrackProvider(@Nullable QueueJournal journal, long guildId) {
+        this.journal = journal;
+        this.guildId = guildId;
+    }
 
     @Override
     public void skipped() {
@@ -49,40 +75,42 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     }
 
     @Override
-    public AudioTrackContext provideAudioTrack() {
+    public synchronized AudioTrackContext provideAudioTrack() {
         if (getRepeatMode() == RepeatMode.SINGLE && lastTrack != null) {
-            return lastTrack.makeClone();
+            AudioTrackContext clone = lastTrack.makeClone();
+            if (journal != null) journal.playing(guildId, clone);
+            return clone;
         }
         if (getRepeatMode() == RepeatMode.ALL && lastTrack != null) {
             //add a fresh copy of the last track back to the queue, if the queue is being repeated
             AudioTrackContext clone = lastTrack.makeClone();
             if (isShuffle()) {
                 clone.setRand(Integer.MAX_VALUE); //put it at the back of the shuffled queue
-                shouldUpdateShuffledQueue = true;
             }
-            queue.add(clone);
+            addEntry(clone);
         }
-        if (isShuffle()) {
-            List<AudioTrackContext> list = getAsListOrdered();
 
-            if (list.isEmpty()) {
-                return null;
-            }
-
-            shouldUpdateShuffledQueue = true;
-            lastTrack = list.get(0);
-            queue.remove(lastTrack);
-            return lastTrack;
+        QueueEntry next = isShuffle() ? shuffledQueue.first() : queue.first();
+        if (next == null) {
+            lastTrack = null;
         } else {
-            lastTrack = queue.poll();
-            return lastTrack;
+            removeEntry(next);
+            lastTrack = next.atc;
+            //decode the following track ahead of time, so it is ready to be played
+            QueueEntry following = ordered().first();
+            if (following != null && following.atc instanceof EncodedAudioTrackContext) {
+                ((EncodedAudioTrackContext) following.atc).decode();
+            }
         }
+        if (journal != null) journal.playing(guildId, lastTrack);
+        return lastTrack;
     }
 
     @Override
-    public boolean remove(AudioTrackContext atc) {
-        if (queue.remove(atc)) {
-            shouldUpdateShuffledQueue = true;
+    public synchronized boolean remove(AudioTrackContext atc) {
+        QueueEntry entry = entries.get(atc.getTrackId());
+        if (entry != null) {
+            removeEntry(entry);
             return true;
         } else {
             return false;
@@ -90,168 +118,267 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     }
 
     @Override
-    public void removeAll(Collection<AudioTrackContext> tracks) {
-        if (queue.removeAll(tracks)) {
-            shouldUpdateShuffledQueue = true;
+    public synchronized void removeAll(Collection<AudioTrackContext> tracks) {
+        for (AudioTrackContext atc : tracks) {
+            remove(atc);
         }
     }
 
     @Override
-    public void removeAllById(Collection<Long> trackIds) {
-        queue.removeIf(audioTrackContext -> trackIds.contains(audioTrackContext.getTrackId()));
-        shouldUpdateShuffledQueue = true;
+    public synchronized void removeAllById(Collection<Long> trackIds) {
+        for (Long trackId : trackIds) {
+            QueueEntry entry = entries.get((long) trackId);
+            if (entry != null) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    @Override
+    public synchronized AudioTrackContext removeAt(int index) {
+        QueueEntry entry = ordered().get(index);
+        removeEntry(entry);
+        return entry.atc;
     }
 
     @Override
-    public AudioTrackContext getTrack(int index) {
-        return getAsListOrdered().get(index);
+    public synchronized AudioTrackContext getTrack(int index) {
+        return ordered().get(index).atc;
     }
 
     /**
      * Returns all songs inclusively from one index till the another in a non-bitching way.
      */
     @Override
-    public List<AudioTrackContext> getTracksInRange(int indexA, int indexB) {
+    public synchronized List<AudioTrackContext> getTracksInRange(int indexA, int indexB) {
 
         //make sure startIndex <= endIndex
         int startIndex = indexA < indexB ? indexA : indexB;
         int endIndex = indexA < indexB ? indexB : indexA;
 
-        //Collect tracks between the two indices
-        int i = 0;
-        List<AudioTrackContext> result = new ArrayList<>();
-        for (AudioTrackContext atc : getAsListOrdered()) {
-            if (i >= startIndex && i < endIndex)
-                result.add(atc);
-            i++;
-            if (i >= endIndex) break;//abort early if we're done
-        }
-
-        //trigger shuffle queue update if we found tracks to remove
-        if (result.size() > 0) shouldUpdateShuffledQueue = true;
-        return result;
+        return unwrap(ordered().range(startIndex, endIndex));
     }
 
     @Override
-    public List<AudioTrackContext> getAsList() {
-        return new ArrayList<>(queue);
-    }
-
-    @Override
-    public void setShuffle(boolean shuffle) {
-        super.setShuffle(shuffle);
-        //this is needed because, related to the repeat all mode, turning shuffle off, skipping a track, turning shuffle
-        //on will cause an incorrect playlist to show with the list command and may lead to a bug of an
-        //IllegalStateException due to trying to play the same AudioTrack object twice
-        if (shuffle) shouldUpdateShuffledQueue = true;
+    public synchronized List<AudioTrackContext> getAsList() {
+        return unwrap(queue.toList());
     }
 
     @Override
     public synchronized void reshuffle() {
-        queue.forEach(AudioTrackContext::randomize);
-        shouldUpdateShuffledQueue = true;
-    }
-
-    @Override
-    public synchronized List<AudioTrackContext> getAsListOrdered() {
-        if (!isShuffle()) {
-            return getAsList();
-        }
-
-        if (!shouldUpdateShuffledQueue) {
-            return cachedShuffledQueue;
-        }
-
-        List<AudioTrackContext> newList = new ArrayList<>();
-
-        //Update the new queue
-        newList.addAll(getAsList());
-
-        Collections.sort(newList);
-
-        //adjust rand values so they are evenly spread out
+        //the rand value is part of an entry's position in the shuffled queue, so the entries need to be recreated
+        List<QueueEntry> current = queue.toList();
+        queue.clear();
+        shuffledQueue.clear();
+        long[] trackIds = new long[current.size()];
+        int[] rands = new int[current.size()];
         int i = 0;
-        int size = newList.size();
-        for (AudioTrackContext atc : newList) {
-            //this will calculate a value between 0.0 < rand < 1.0 multiplied by the full integer range
-            int rand = (int) (((i / (size + 1.0)) + (1.0 / (size + 1.0))) * Integer.MAX_VALUE);
-            atc.setRand(rand);
+        for (QueueEntry entry : current) {
+            QueueEntry reshuffled = new QueueEntry(entry, entry.atc.randomize());
+            entries.put(reshuffled.atc.getTrackId(), reshuffled);
+            queue.add(reshuffled);
+            shuffledQueue.add(reshuffled);
+            trackIds[i] = reshuffled.atc.getTrackId();
+            rands[i] = reshuffled.atc.getRand();
             i++;
         }
+        if (journal != null) journal.reshuffled(guildId, trackIds, rands);
+    }
 
-        cachedShuffledQueue = newList;
-
-        shouldUpdateShuffledQueue = false;
-        return newList;
+    @Override
+    public synchronized List<AudioTrackContext> getAsListOrdered() {
+        return unwrap(ordered().toList());
     }
 
     @Override
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return queue.isEmpty();
     }
 
     @Override
-    public int size() {
+    public synchronized int size() {
         return queue.size();
     }
 
     @Override
-    public void add(AudioTrackContext track) {
-        shouldUpdateShuffledQueue = true;
-        queue.add(track);
+    public synchronized void add(AudioTrackContext track) {
+        addEntry(track);
     }
 
     @Override
-    public void addAll(Collection<AudioTrackContext> tracks) {
-        shouldUpdateShuffledQueue = true;
-        queue.addAll(tracks);
+    public synchronized void addAll(Collection<AudioTrackContext> tracks) {
+        for (AudioTrackContext atc : tracks) {
+            addEntry(atc);
+        }
     }
 
     @Override
-    public void clear() {
+    public synchronized void clear() {
+        if (journal != null) journal.cleared(guildId);
         lastTrack = null;
-        shouldUpdateShuffledQueue = true;
         queue.clear();
+        shuffledQueue.clear();
+        entries.clear();
+        userTracks.clear();
+        durationMillis = 0;
+        streams = 0;
     }
 
     @Override
-    public long getDurationMillis() {
-        long duration = 0;
-        for (AudioTrackContext atc : queue) {
-            if (!atc.getTrack().getInfo().isStream) {
-                duration += atc.getEffectiveDuration();
-            }
-        }
-        return duration;
+    public synchronized long getDurationMillis() {
+        return durationMillis;
     }
 
     @Override
-    public int streamsCount() {
-        int streams = 0;
-        for (AudioTrackContext atc : queue) {
-            if (atc.getTrack().getInfo().isStream) {
-                streams++;
-            }
-        }
+    public synchronized int streamsCount() {
         return streams;
     }
 
+    /**
+     * @return amount of queued tracks that were added by the provided user
+     */
+    public synchronized int getUserTrackCount(long userId) {
+        LongSet trackIds = userTracks.get(userId);
+        return trackIds != null ? trackIds.size() : 0;
+    }
+
     @Override
-    public AudioTrackContext peek() {
-        if (isShuffle() && queue.size() > 0) {
-            return getAsListOrdered().get(0);
-        } else {
-            return queue.peek();
-        }
+    public synchronized List<Long> getTrackIdsByUser(long userId) {
+        LongSet trackIds = userTracks.get(userId);
+        return trackIds != null ? new ArrayList<>(trackIds) : new ArrayList<>();
+    }
+
+    @Override
+    public synchronized AudioTrackContext peek() {
+        QueueEntry next = ordered().first();
+        return next != null ? next.atc : null;
     }
 
     @Override
-    public boolean isUserTrackOwner(long userId, Collection<Long> trackIds) {
-        for (AudioTrackContext atc : getAsListOrdered()) {
-            if (trackIds.contains(atc.getTrackId()) && atc.getUserId() != userId) {
+    public synchronized boolean isUserTrackOwner(long userId, Collection<Long> trackIds) {
+        if (getUserTrackCount(userId) == queue.size()) {
+            return true; //all queued tracks belong to this user
+        }
+        for (Long trackId : trackIds) {
+            QueueEntry entry = entries.get((long) trackId);
+            if (entry != null && entry.atc.getUserId() != userId) {
                 return false;
             }
         }
         return true;
     }
+
+    /**
+     * Recalculates the running totals and the indices of this queue from scratch and compares them to the maintained
+     * ones. This is expensive and meant to be used by tests.
+     *
+     * @throws IllegalStateException if any of them are out of sync
+     */
+    public synchronized void checkConsistency() {
+        long expectedDuration = 0;
+        int expectedStreams = 0;
+        Long2ObjectOpenHashMap<LongSet> expectedUserTracks = new Long2ObjectOpenHashMap<>();
+        for (QueueEntry entry : queue.toList()) {
+            long trackId = entry.atc.getTrackId();
+            if (entries.get(trackId) != entry || !shuffledQueue.contains(entry)) {
+                throw new IllegalStateException("Track " + trackId + " is not indexed properly");
+            }
+            expectedDuration += entry.durationMillis;
+            if (entry.isStream) expectedStreams++;
+            expectedUserTracks.computeIfAbsent(entry.atc.getUserId(), k -> new LongOpenHashSet()).add(trackId);
+        }
+
+        if (expectedDuration != durationMillis) {
+            throw new IllegalStateException("Duration is " + durationMillis + ", expected " + expectedDuration);
+        }
+        if (expectedStreams != streams) {
+            throw new IllegalStateException("Streams count is " + streams + ", expected " + expectedStreams);
+        }
+        if (!expectedUserTracks.equals(userTracks)) {
+            throw new IllegalStateException("User tracks are " + userTracks + ", expected " + expectedUserTracks);
+        }
+        if (queue.size() != shuffledQueue.size() || queue.size() != entries.size()) {
+            throw new IllegalStateException(String.format("Sizes of the queue (%s), the shuffled queue (%s) and the entries (%s) differ",
+                    queue.size(), shuffledQueue.size(), entries.size()));
+        }
+    }
+
+    //the tree representing the current playing order
+    private OrderStatisticTree<QueueEntry> ordered() {
+        return isShuffle() ? shuffledQueue : queue;
+    }
+
+    private void addEntry(AudioTrackContext atc) {
+        if (entries.containsKey(atc.getTrackId())) {
+            return; //already queued
+        }
+        QueueEntry entry = new QueueEntry(atc, nextSequence++, atc.getRand());
+        entries.put(atc.getTrackId(), entry);
+        userTracks.computeIfAbsent(atc.getUserId(), k -> new LongOpenHashSet()).add(atc.getTrackId());
+        queue.add(entry);
+        shuffledQueue.add(entry);
+
+        durationMillis += entry.durationMillis;
+        if (entry.isStream) streams++;
+        if (journal != null) journal.added(atc);
+    }
+
+    private void removeEntry(QueueEntry entry) {
+        long userId = entry.atc.getUserId();
+        entries.remove(entry.atc.getTrackId());
+        LongSet trackIds = userTracks.get(userId);
+        trackIds.remove(entry.atc.getTrackId());
+        if (trackIds.isEmpty()) {
+            userTracks.remove(userId);
+        }
+        queue.remove(entry);
+        shuffledQueue.remove(entry);
+
+        durationMillis -= entry.durationMillis;
+        if (entry.isStream) streams--;
+        if (journal != null) journal.removed(guildId, entry.atc.getTrackId());
+    }
+
+    private static List<AudioTrackContext> unwrap(List<QueueEntry> entries) {
+        List<AudioTrackContext> result = new ArrayList<>(entries.size());
+        for (QueueEntry entry : entries) {
+            result.add(entry.atc);
+        }
+        return result;
+    }
+
+    /**
+     * Position of a track in both orders of the queue. The rand value is copied on creation, so that changes to the
+     * track context can't corrupt the ordering of the trees. The same goes for the values counted in the running
+     * totals, so that removing an entry subtracts exactly what adding it added.
+     */
+    private static class QueueEntry {
+
+        private static final Comparator<QueueEntry> INSERTION_ORDER = Comparator.comparingLong(e -> e.sequence);
+        private static final Comparator<QueueEntry> SHUFFLE_ORDER = Comparator.<QueueEntry>comparingInt(e -> e.rand)
+                .thenComparingLong(e -> e.sequence);
+
+        private final AudioTrackContext atc;
+        private final long sequence;
+        private final int rand;
+        private final boolean isStream;
+        private final long durationMillis; //live streams are considered to have a length of 0
+
+        private QueueEntry(AudioTrackContext atc, long sequence, int rand) {
+            this.atc = atc;
+            this.sequence = sequence;
+            this.rand = rand;
+            this.isStream = atc.isStream();
+            this.durationMillis = isStream ? 0 : atc.getEffectiveDuration();
+        }
+
+        //same track, new position in the shuffled queue
+        private QueueEntry(QueueEntry entry, int rand) {
+            this.atc = entry.atc;
+            this.sequence = entry.sequence;
+            this.rand = rand;
+            this.isStream = entry.isStream;
+            this.durationMillis = entry.durationMillis;
+        }
+    }
 }
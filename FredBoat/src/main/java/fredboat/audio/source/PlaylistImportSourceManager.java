@@ -25,6 +25,10 @@
 
 package fredboat.audio.source;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
@@ -40,9 +44,12 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 
 public class PlaylistImportSourceManager implements AudioSourceManager, PlaylistImporter {
@@ -52,6 +59,14 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
     private static final AudioPlayerManager PRIVATE_MANAGER = AbstractPlayer
             .registerSourceManagers(new DefaultAudioPlayerManager());
 
+    //items of a paste being loaded at the same time, matches the size of the item loader pool of lavaplayer
+    private static final int PARALLEL_LOADS = 10;
+
+    private static final Cache<String, List<String>> PASTES = CacheBuilder.newBuilder()
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .maximumSize(100)
+            .build();
+
     @Override
     public String getSourceName() {
         return "playlist_import";
@@ -69,25 +84,38 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         if (pasteId == null || "".equals(pasteId) || !PasteServiceConstants.PASTE_SERVICE_URLS.containsKey(serviceName)) {
             return null;
         }
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
-
-        PasteServiceAudioResultHandler handler = new PasteServiceAudioResultHandler();
-        Future<Void> lastFuture = null;
-        for (String id : trackIds) {
-            lastFuture = PRIVATE_MANAGER.loadItemOrdered(handler, id, handler);
-        }
-
-        if (lastFuture == null) {
+        List<String> trackIds = getTrackIds(serviceName, pasteId);
+        if (trackIds.isEmpty()) {
             return null;
         }
 
+        //the items are loaded in parallel, each into its own slot, to keep the order of the paste
+        AudioTrack[] loaded = new AudioTrack[trackIds.size()];
+        Semaphore permits = new Semaphore(PARALLEL_LOADS);
+        List<Future<Void>> futures = new ArrayList<>(trackIds.size());
         try {
-            lastFuture.get();
+            for (int i = 0; i < trackIds.size(); i++) {
+                permits.acquire();
+                futures.add(PRIVATE_MANAGER.loadItem(trackIds.get(i), new PasteServiceAudioResultHandler(i, loaded, permits)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
         } catch (InterruptedException | ExecutionException ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            futures.forEach(future -> future.cancel(true));
             throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, ex);
         }
 
-        return new BasicAudioPlaylist(pasteId, handler.getLoadedTracks(), null, false);
+        List<AudioTrack> tracks = new ArrayList<>(loaded.length);
+        for (AudioTrack track : loaded) {
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        return new BasicAudioPlaylist(pasteId, tracks, null, false);
     }
 
     @Override
@@ -150,6 +178,16 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         return result;
     }
 
+    //the paste is asked for twice in a row, for the playlist info and for loading it, so it is kept for a short while
+    private List<String> getTrackIds(String serviceName, String pasteId) {
+        try {
+            return PASTES.get(serviceName + ":" + pasteId, () -> loadAndParseTrackIds(serviceName, pasteId));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     private List<String> loadAndParseTrackIds(String serviceName, String pasteId) {
         String response;
         try {
@@ -167,7 +205,7 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
                 filtered.add(str);
             }
         }
-        return filtered;
+        return Collections.unmodifiableList(filtered);
     }
 
 
@@ -181,43 +219,46 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         String pasteId = pasteData[1];
         if (serviceName == null || "".equals(serviceName) || pasteId == null || "".equals(pasteId)) return null;
 
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
+        List<String> trackIds = getTrackIds(serviceName, pasteId);
 
         return new PlaylistInfo(trackIds.size(), pasteId, PlaylistInfo.Source.PASTESERVICE);
     }
 
-    private class PasteServiceAudioResultHandler implements AudioLoadResultHandler {
+    private static class PasteServiceAudioResultHandler implements AudioLoadResultHandler {
 
-        private final List<AudioTrack> loadedTracks;
+        private final int index;
+        private final AudioTrack[] loadedTracks;
+        private final Semaphore permits;
 
-        private PasteServiceAudioResultHandler() {
-            this.loadedTracks = new ArrayList<>();
+        private PasteServiceAudioResultHandler(int index, AudioTrack[] loadedTracks, Semaphore permits) {
+            this.index = index;
+            this.loadedTracks = loadedTracks;
+            this.permits = permits;
         }
 
         @Override
         public void trackLoaded(AudioTrack track) {
-            loadedTracks.add(track);
+            loadedTracks[index] = track;
+            permits.release();
         }
 
         @Override
         public void playlistLoaded(AudioPlaylist playlist) {
             log.info("Attempt to load a playlist recursively, skipping");
+            permits.release();
         }
 
         @Override
         public void noMatches() {
             // ignore
+            permits.release();
         }
 
         @Override
         public void loadFailed(FriendlyException exception) {
             log.debug("Failed loading track provided via the paste service", exception);
+            permits.release();
         }
-
-        public List<AudioTrack> getLoadedTracks() {
-            return loadedTracks;
-        }
-
     }
 
 }
@@ -33,6 +33,7 @@ import com.sedmelluq.discord.lavaplayer.track.AudioReference;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.Config;
 import fredboat.audio.queue.PlaylistInfo;
 import fredboat.util.rest.SearchUtil;
 import fredboat.util.rest.SpotifyAPIWrapper;
@@ -44,12 +45,14 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -71,10 +74,12 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
     //https://regex101.com/r/AEWyxi/3
     private static final Pattern PLAYLIST_PATTERN = Pattern.compile("https?://.*\\.spotify\\.com/user/(.*)/playlist/([^?/\\s]*)");
 
-    //Take care when deciding on upping the core pool size: The threads may hog database connections
+    //Take care when deciding on upping the amount of threads: They may hog database connections
     // (for selfhosters running on the SQLite db) when loading an uncached playlist.
     // Upping the threads will also fire search requests more aggressively against Youtube which is probably better avoided.
-    public static ScheduledExecutorService loader = Executors.newScheduledThreadPool(1);
+    private static final int RESOLVER_THREADS = Config.CONFIG.getSpotifyResolverThreads();
+    private static final ExecutorService RESOLVER = Executors.newFixedThreadPool(RESOLVER_THREADS,
+            runnable -> new Thread(runnable, "spotify-resolver"));
 
     private static final List<SearchUtil.SearchProvider> searchProviders
             = Arrays.asList(SearchUtil.SearchProvider.YOUTUBE, SearchUtil.SearchProvider.SOUNDCLOUD);
@@ -86,63 +91,41 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
 
     @Override
     public AudioItem loadItem(final DefaultAudioPlayerManager manager, final AudioReference ar) {
+        if (parse(ar.identifier) == null) return null;
 
-        String[] data = parse(ar.identifier);
-        if (data == null) return null;
-        final String spotifyUser = data[0];
-        final String spotifyListId = data[1];
-
-        final SpotifyAPIWrapper saw = SpotifyAPIWrapper.getApi();
-
-        PlaylistInfo plData;
         try {
-            plData = saw.getPlaylistDataBlocking(spotifyUser, spotifyListId);
-        } catch (Exception e) {
-            log.warn("Could not retrieve playlist " + spotifyListId + " of user " + spotifyUser, e);
-            throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
-        }
-
-        String playlistName = plData.getName();
-        if (playlistName == null || "".equals(playlistName)) playlistName = "Spotify Playlist";
-        int tracksTotal = plData.getTotalTracks();
-
-        final List<AudioTrack> trackList = new ArrayList<>();
-        final List<String> trackListSearchTerms;
-
-        try {
-            trackListSearchTerms = saw.getPlaylistTracksSearchTermsBlocking(spotifyUser, spotifyListId);
-        } catch (Exception e) {
-            log.warn("Could not retrieve tracks for playlist " + spotifyListId + " of user " + spotifyUser, e);
-            throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
+            return resolve(ar.identifier, tracks -> {
+            }).getCompletion().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FriendlyException("Interrupted while loading the playlist", FriendlyException.Severity.COMMON, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FriendlyException) {
+                throw (FriendlyException) e.getCause();
+            }
+            throw new FriendlyException("Failed to load the playlist", FriendlyException.Severity.FAULT, e.getCause());
         }
-        log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + tracksTotal + " tracks");
-
-        //build a task list
-        List<CompletableFuture<AudioTrack>> taskList = new ArrayList<>();
-        for (final String s : trackListSearchTerms) {
-            //remove all punctuation
-            final String query = s.replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
+    }
 
-            CompletableFuture<AudioTrack> f = CompletableFuture.supplyAsync(() -> searchSingleTrack(query), loader);
-            taskList.add(f);
-        }
+    /**
+     * @return true if the identifier is a spotify playlist link
+     */
+    public boolean isPlaylist(String identifier) {
+        return parse(identifier) != null;
+    }
 
-        //build a tracklist from that task list
-        for (CompletableFuture<AudioTrack> futureTrack : taskList) {
-            try {
-                final AudioTrack audioItem = futureTrack.get();
-                if (audioItem == null) {
-                    continue; //skip the track if we couldn't find it
-                }
-                trackList.add(audioItem);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (ExecutionException ignored) {
-                //this is fine, loop will go for the next item
-            }
-        }
-        return new BasicAudioPlaylist(playlistName, trackList, null, true);
+    /**
+     * Starts resolving the tracks of a spotify playlist. Tracks are searched in parallel, and handed to the consumer in
+     * playlist order as soon as all tracks before them are resolved, so their playback does not have to wait for the
+     * whole playlist. Tracks that could not be found are skipped.
+     *
+     * @param identifier a spotify playlist link, see {@link #isPlaylist(String)}
+     * @param onTracks   receives the resolved tracks in order, in batches. Not called concurrently.
+     */
+    public Resolution resolve(String identifier, Consumer<List<AudioTrack>> onTracks) {
+        Resolution resolution = new Resolution(identifier, onTracks);
+        RESOLVER.execute(resolution::start);
+        return resolution;
     }
 
     /**
@@ -154,7 +137,7 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
      * @param query Term that shall be searched
      * @return An AudioTrack likely corresponding to the query term or null.
      */
-    private AudioTrack searchSingleTrack(final String query) {
+    private static AudioTrack searchSingleTrack(final String query) {
         try {
             AudioPlaylist list = SearchUtil.searchForTracks(query, CACHE_DURATION, 60000, searchProviders);
             //didn't find anything
@@ -200,7 +183,7 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
     /**
      * @return null or a string array containing spotifyUser at [0] and playlistId at [1] of the requested playlist
      */
-    private String[] parse(String identifier) {
+    private static String[] parse(String identifier) {
         String[] result = new String[2];
         final Matcher m = PLAYLIST_PATTERN.matcher(identifier);
 
@@ -230,4 +213,139 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
             throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
         }
     }
+
+    /**
+     * The tracks of a spotify playlist being resolved. Each resolution keeps at most as many searches in flight as
+     * there are resolver threads, so resolutions started later get their searches in between and are not stuck
+     * behind a big playlist.
+     */
+    public static class Resolution {
+
+        private final String identifier;
+        private final Consumer<List<AudioTrack>> onTracks;
+        private final CompletableFuture<AudioPlaylist> completion = new CompletableFuture<>();
+
+        //guarded by this
+        private String name = "Spotify Playlist";
+        private List<String> searchTerms = Collections.emptyList();
+        private AudioTrack[] resolved = new AudioTrack[0];
+        private boolean[] done = new boolean[0];
+        private final List<AudioTrack> found = new ArrayList<>();
+        private int nextToSubmit = 0;
+        private int nextToEmit = 0;
+        private boolean cancelled = false;
+
+        private Resolution(String identifier, Consumer<List<AudioTrack>> onTracks) {
+            this.identifier = identifier;
+            this.onTracks = onTracks;
+        }
+
+        /**
+         * @return completes with all resolved tracks once the playlist is resolved, exceptionally with a
+         * {@link FriendlyException} if the playlist could not be retrieved, or is cancelled by {@link #cancel()}
+         */
+        public CompletableFuture<AudioPlaylist> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * Stops resolving the playlist. Tracks not handed to the consumer yet won't be.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            completion.cancel(false);
+        }
+
+        private void start() {
+            String[] data = parse(identifier);
+            //noinspection ConstantConditions checked before starting the resolution
+            final String spotifyUser = data[0];
+            final String spotifyListId = data[1];
+            final SpotifyAPIWrapper saw = SpotifyAPIWrapper.getApi();
+
+            PlaylistInfo plData;
+            List<String> trackListSearchTerms;
+            try {
+                plData = saw.getPlaylistDataBlocking(spotifyUser, spotifyListId);
+                trackListSearchTerms = saw.getPlaylistTracksSearchTermsBlocking(spotifyUser, spotifyListId);
+            } catch (Exception e) {
+                log.warn("Could not retrieve playlist " + spotifyListId + " of user " + spotifyUser, e);
+                completion.completeExceptionally(new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e));
+                return;
+            }
+
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (plData.getName() != null && !"".equals(plData.getName())) name = plData.getName();
+                log.info("Retrieved playlist data for " + name + " from Spotify, loading up " + trackListSearchTerms.size() + " tracks");
+                searchTerms = trackListSearchTerms;
+                resolved = new AudioTrack[searchTerms.size()];
+                done = new boolean[searchTerms.size()];
+                while (nextToSubmit < Math.min(RESOLVER_THREADS, searchTerms.size())) {
+                    submitNext();
+                }
+                emitResolved();
+            }
+        }
+
+        //guarded by this
+        private void submitNext() {
+            final int index = nextToSubmit++;
+            //remove all punctuation
+            final String query = searchTerms.get(index).replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
+            RESOLVER.execute(() -> {
+                AudioTrack track = null;
+                try {
+                    if (!isCancelled()) {
+                        track = searchSingleTrack(query);
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to resolve spotify track {}", query, e);
+                }
+                onResolved(index, track);
+            });
+        }
+
+        private synchronized void onResolved(int index, AudioTrack track) {
+            resolved[index] = track;
+            done[index] = true;
+            if (!cancelled && nextToSubmit < searchTerms.size()) {
+                submitNext();
+            }
+            emitResolved();
+        }
+
+        //guarded by this, which also keeps the batches in order
+        private void emitResolved() {
+            if (cancelled) {
+                return;
+            }
+            List<AudioTrack> batch = new ArrayList<>();
+            while (nextToEmit < done.length && done[nextToEmit]) {
+                AudioTrack track = resolved[nextToEmit];
+                resolved[nextToEmit] = null;
+                nextToEmit++;
+                if (track != null) {
+                    batch.add(track);
+                }
+            }
+            if (!batch.isEmpty()) {
+                found.addAll(batch);
+                try {
+                    onTracks.accept(batch);
+                } catch (Exception e) {
+                    log.error("Consumer of resolved spotify tracks threw", e);
+                }
+            }
+            if (nextToEmit == done.length) {
+                completion.complete(new BasicAudioPlaylist(name, new ArrayList<>(found), null, true));
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
 }
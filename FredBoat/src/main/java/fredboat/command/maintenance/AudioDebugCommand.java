@@ -70,7 +70,9 @@ public class AudioDebugCommand extends Command implements IMaintenanceCommand {
             msg = msg + "Last minute's packet stats:\n" + TextUtils.asCodeBlock(
                               "Packets sent:   " + guildPlayer.getAudioLossCounter().getLastMinuteSuccess() + "\n"
                             + "Null packets:   " + guildPlayer.getAudioLossCounter().getLastMinuteLoss() + "\n"
-                            + "Packet deficit: " + deficit);
+                            + "Packet deficit: " + deficit + "\n"
+                            + "Worst second:   " + guildPlayer.getAudioLossCounter().getWorstSecondLoss() + " null packets\n"
+                            + "Longest gap:    " + guildPlayer.getAudioLossCounter().getLongestLossStreak() + " packets");
         }
 
         context.replyWithName(msg);
@@ -110,7 +110,9 @@ public class DebugCommand extends Command implements IMaintenanceCommand, IComma
         String content
                 = "Packets sent:   " + player.getAudioLossCounter().getLastMinuteSuccess() + "\n"
                 + "Null packets:   " + player.getAudioLossCounter().getLastMinuteLoss() + "\n"
-                + "Packet deficit: " + deficit;
+                + "Packet deficit: " + deficit + "\n"
+                + "Worst second:   " + player.getAudioLossCounter().getWorstSecondLoss() + " null packets\n"
+                + "Longest gap:    " + player.getAudioLossCounter().getLongestLossStreak() + " packets";
         return eb.addField(title, TextUtils.asCodeBlock(content), false);
     }
 
@@ -186,18 +186,16 @@ public class SkipCommand extends Command implements IMusicCommand, ICommandRestr
             }
         }
 
-        List<AudioTrackContext> listAtc = player.getTracksInRange(0, player.getTrackCount());
         List<Long> userAtcIds = new ArrayList<>();
         List<User> affectedUsers = new ArrayList<>();
 
         for (User user : users) {
-            for (AudioTrackContext atc : listAtc) {
-                if (atc.getUserId() == user.getIdLong()) {
-                    userAtcIds.add(atc.getTrackId());
+            List<Long> trackIds = player.getTrackIdsByUser(user.getIdLong());
+            if (!trackIds.isEmpty()) {
+                userAtcIds.addAll(trackIds);
 
-                    if (!affectedUsers.contains(user)) {
-                        affectedUsers.add(user);
-                    }
+                if (!affectedUsers.contains(user)) {
+                    affectedUsers.add(user);
                 }
             }
         }
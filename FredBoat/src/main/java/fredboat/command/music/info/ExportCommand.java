@@ -58,7 +58,7 @@ public class ExportCommand extends Command implements IMusicCommand {
         }
 
         String out = player.getRemainingTracks().stream()
-                .map(atc -> atc.getTrack().getInfo().uri)
+                .map(atc -> atc.getTrackInfo().uri)
                 .collect(Collectors.joining("\n"));
 
         try {
@@ -42,7 +42,7 @@ import fredboat.messaging.CentralMessaging;
 import fredboat.messaging.internal.Context;
 import fredboat.util.TextUtils;
 import fredboat.util.rest.Http;
-import fredboat.util.rest.YoutubeAPI;
+import fredboat.util.rest.YoutubeMetadataCache;
 import fredboat.util.rest.YoutubeVideo;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.entities.Member;
@@ -70,6 +70,7 @@ public class NowplayingCommand extends Command implements IMusicCommand {
 
             EmbedBuilder builder;
             if (at instanceof YoutubeAudioTrack) {
+                YoutubeMetadataCache.ins.nowPlayingUsed(context.guild.getIdLong());
                 builder = getYoutubeEmbed(atc, (YoutubeAudioTrack) at);
             } else if (at instanceof SoundCloudAudioTrack) {
                 builder = getSoundcloudEmbed(atc, (SoundCloudAudioTrack) at);
@@ -97,7 +98,7 @@ public class NowplayingCommand extends Command implements IMusicCommand {
     }
 
     private EmbedBuilder getYoutubeEmbed(AudioTrackContext atc, YoutubeAudioTrack at) {
-        YoutubeVideo yv = YoutubeAPI.getVideoFromID(at.getIdentifier(), true);
+        YoutubeVideo yv = YoutubeMetadataCache.ins.getVideo(at.getIdentifier());
         String timeField = "["
                 + TextUtils.formatTime(atc.getEffectivePosition())
                 + "/"
@@ -34,7 +34,9 @@ import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 import fredboat.FredBoat;
 import fredboat.db.DatabaseManager;
 import fredboat.db.DatabaseNotReadyException;
+import fredboat.util.rest.SearchResultCache;
 import fredboat.util.rest.SearchUtil;
+import org.apache.commons.lang3.SerializationException;
 import org.apache.commons.lang3.SerializationUtils;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -94,7 +96,7 @@ public class SearchResult implements Serializable {
                         AudioPlaylist searchResult) {
         this.searchResultId = new SearchResultId(provider, searchTerm);
         this.timestamp = System.currentTimeMillis();
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = encode(playerManager, searchResult);
     }
 
     /**
@@ -106,6 +108,11 @@ public class SearchResult implements Serializable {
      */
     public static AudioPlaylist load(AudioPlayerManager playerManager, SearchUtil.SearchProvider provider,
                                      String searchTerm, long maxAgeMillis) throws DatabaseNotReadyException {
+        SearchResultCache.CachedSearchResult cached = SearchResultCache.ins.get(provider, searchTerm, maxAgeMillis);
+        if (cached != null) {
+            return decode(playerManager, cached.getData());
+        }
+
         DatabaseManager dbManager = FredBoat.getDbManager();
         if (dbManager == null || !dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
@@ -125,7 +132,11 @@ public class SearchResult implements Serializable {
             em.close();
         }
 
-        if (sr != null && (maxAgeMillis < 0 || System.currentTimeMillis() < sr.timestamp + maxAgeMillis)) {
+        if (sr == null) {
+            return null;
+        }
+        sr.cache();
+        if (maxAgeMillis < 0 || System.currentTimeMillis() < sr.timestamp + maxAgeMillis) {
             return sr.getSearchResult(playerManager);
         } else {
             return null;
@@ -158,6 +169,16 @@ public class SearchResult implements Serializable {
         }
     }
 
+    /**
+     * Keep this search result in the in-process cache tiers in front of the database.
+     *
+     * @return this object
+     */
+    public SearchResult cache() {
+        SearchResultCache.ins.put(getProvider(), getSearchTerm(), timestamp, serializedSearchResult);
+        return this;
+    }
+
     public SearchResultId getId() {
         return searchResultId;
     }
@@ -186,13 +207,72 @@ public class SearchResult implements Serializable {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return size of the stored search result in bytes
+     */
+    public int getSerializedSize() {
+        return serializedSearchResult.length;
+    }
+
     public AudioPlaylist getSearchResult(AudioPlayerManager playerManager) {
-        SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
-        return sap.decode(playerManager);
+        return decode(playerManager, serializedSearchResult);
     }
 
     public void setSearchResult(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = encode(playerManager, searchResult);
+    }
+
+    /**
+     * @return true if this search result is still stored in the Java serialized format
+     */
+    public boolean isLegacyFormat() {
+        return SearchResultCodec.isLegacy(serializedSearchResult);
+    }
+
+    /**
+     * Converts a search result stored in the Java serialized format into the current one. Results with tracks that
+     * can't be decoded by the provided PlayerManager are left alone, so no tracks get lost.
+     *
+     * @return true if the search result has been converted
+     */
+    public boolean migrateFormat(AudioPlayerManager playerManager) {
+        if (!isLegacyFormat()) {
+            return false;
+        }
+        SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
+        AudioPlaylist searchResult = sap.decode(playerManager);
+        if (sap.tracks != null && searchResult.getTracks().size() < sap.tracks.length) {
+            return false;
+        }
+        setSearchResult(playerManager, searchResult);
+        return true;
+    }
+
+    private static byte[] encode(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
+        try {
+            return SearchResultCodec.encode(playerManager, searchResult);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    static AudioPlaylist decode(AudioPlayerManager playerManager, byte[] serializedSearchResult) {
+        if (SearchResultCodec.isLegacy(serializedSearchResult)) {
+            SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
+            return sap.decode(playerManager);
+        }
+        try {
+            return SearchResultCodec.decode(playerManager, serializedSearchResult);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    /**
+     * Encodes a search result the way it was stored before {@link SearchResultCodec}, to compare the two formats.
+     */
+    static byte[] encodeLegacy(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
+        return SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
     }
 
     /**
@@ -249,6 +329,7 @@ public class SearchResult implements Serializable {
     }
 
 
+    //the format search results were stored in before SearchResultCodec, still read for old rows
     private static class SerializableAudioPlaylist implements Serializable {
         private static final long serialVersionUID = -6823555858689776338L;
 
@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db.entity;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary format of cached search results:
+ * <pre>
+ * magic (short), version (byte), flags (byte), body
+ * body: name (utf, empty = none), is search result (boolean), index of the selected track (int, -1 = none),
+ *       track count (int), tracks as lavaplayer messages
+ * </pre>
+ * The body is deflated if that makes it smaller, which is noted in the flags. Tracks are decoded straight from the
+ * stream without copying them out first.
+ * <p>
+ * Results stored before this format are Java serialized, which {@link #isLegacy(byte[])} tells apart.
+ */
+class SearchResultCodec {
+
+    private static final short MAGIC = 0x4642; //FB
+    private static final byte VERSION = 1;
+    private static final byte FLAG_DEFLATED = 1;
+    private static final int HEADER_SIZE = 4;
+    private static final int MIN_DEFLATE_SIZE = 256; //bytes of body, smaller ones aren't worth the trouble
+
+    //the header of the Java serialization stream protocol
+    private static final byte LEGACY_MAGIC_0 = (byte) 0xAC;
+    private static final byte LEGACY_MAGIC_1 = (byte) 0xED;
+
+    private SearchResultCodec() {
+    }
+
+    /**
+     * @return true if the data was written by Java serialization instead of this codec
+     */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && data[0] == LEGACY_MAGIC_0 && data[1] == LEGACY_MAGIC_1;
+    }
+
+    static byte[] encode(AudioPlayerManager playerManager, AudioPlaylist playlist) throws IOException {
+        //tracks that fail to encode are left out, so they are counted first
+        List<AudioTrack> tracks = playlist.getTracks() != null ? playlist.getTracks() : new ArrayList<>();
+        ByteArrayOutputStream encodedTracks = new ByteArrayOutputStream(tracks.size() * 128);
+        MessageOutput messages = new MessageOutput(encodedTracks);
+        int count = 0;
+        int selectedIndex = -1;
+        for (AudioTrack track : tracks) {
+            try {
+                playerManager.encodeTrack(messages, track);
+            } catch (IOException e) {
+                continue; //a message is only written once it is complete
+            }
+            if (track == playlist.getSelectedTrack()) {
+                selectedIndex = count;
+            }
+            count++;
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(encodedTracks.size() + 64);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeUTF(playlist.getName() != null ? playlist.getName() : "");
+        bodyOut.writeBoolean(playlist.isSearchResult());
+        bodyOut.writeInt(selectedIndex);
+        bodyOut.writeInt(count);
+        encodedTracks.writeTo(bodyOut);
+
+        byte flags = 0;
+        ByteArrayOutputStream payload = body;
+        if (body.size() >= MIN_DEFLATE_SIZE) {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(body.size());
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(deflated, deflater)) {
+                body.writeTo(deflaterOut);
+            } finally {
+                deflater.end();
+            }
+            if (deflated.size() < body.size()) {
+                payload = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(HEADER_SIZE + payload.size());
+        DataOutputStream out = new DataOutputStream(result);
+        out.writeShort(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        payload.writeTo(out);
+        return result.toByteArray();
+    }
+
+    /**
+     * Tracks that can't be decoded anymore (for example because their source was disabled) are left out.
+     *
+     * @throws IOException if the data is not in this format or broken
+     */
+    static AudioPlaylist decode(AudioPlayerManager playerManager, byte[] data) throws IOException {
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < HEADER_SIZE || header.readShort() != MAGIC) {
+            throw new IOException("Not an encoded search result");
+        }
+        byte version = header.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown search result format version " + version);
+        }
+        byte flags = header.readByte();
+        InputStream body = new ByteArrayInputStream(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            body = new InflaterInputStream(body);
+        }
+
+        try (DataInputStream in = new DataInputStream(body)) {
+            String name = in.readUTF();
+            boolean isSearchResult = in.readBoolean();
+            int selectedIndex = in.readInt();
+            int count = in.readInt();
+
+            MessageInput messages = new MessageInput(in);
+            List<AudioTrack> tracks = new ArrayList<>(count);
+            AudioTrack selected = null;
+            for (int i = 0; i < count; i++) {
+                DecodedTrackHolder holder = playerManager.decodeTrack(messages);
+                if (holder == null) {
+                    throw new IOException("Search result ended after " + i + " of " + count + " tracks");
+                }
+                if (holder.decodedTrack != null) {
+                    tracks.add(holder.decodedTrack);
+                    if (i == selectedIndex) {
+                        selected = holder.decodedTrack;
+                    }
+                }
+            }
+            return new BasicAudioPlaylist(emptyToNull(name), tracks, selected, isSearchResult);
+        }
+    }
+
+    @Nullable
+    private static String emptyToNull(String name) {
+        return name.isEmpty() ? null : name;
+    }
+}
@@ -33,6 +33,7 @@ import fredboat.audio.player.VideoSelection;
 import fredboat.feature.metrics.collectors.FredBoatCollector;
 import fredboat.feature.metrics.collectors.ThreadPoolCollector;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import io.prometheus.client.hibernate.HibernateStatisticsCollector;
@@ -172,6 +173,49 @@ public class Metrics {
             .labelNames("source") //cache, youtube, soundcloud etc
             .register();
 
+    public static final Histogram searchProviderLatency = Histogram.build()//excluding cache hits
+            .name("fredboat_music_search_provider_latency_seconds")
+            .help("Time search providers took to answer")
+            .labelNames("provider") // lavaplayer-youtube, lavaplayer-soundcloud, youtube-api
+            .buckets(.1, .25, .5, .75, 1, 1.5, 2, 3, 5, 10)
+            .register();
+
+    public static final Counter searchHedges = Counter.build()
+            .name("fredboat_music_search_hedges_total")
+            .help("Total searches that took longer than usual and were run with the next provider in parallel")
+            .labelNames("result") // fired, won (the parallel search was faster), denied (out of budget)
+            .register();
+
+    public static final Counter searchResultCacheRequests = Counter.build()
+            .name("fredboat_search_result_cache_requests_total")
+            .help("Total lookups of search results in the in-process cache tiers")
+            .labelNames("tier", "result") // heap, mapped; hit, stale, miss
+            .register();
+
+    public static final Counter searchResultCacheEvictions = Counter.build()
+            .name("fredboat_search_result_cache_evictions_total")
+            .help("Total search results evicted from the in-process cache tiers to make room for others")
+            .labelNames("tier") // heap, mapped
+            .register();
+
+    public static final Counter queryNormalizations = Counter.build()
+            .name("fredboat_query_normalizations_total")
+            .help("Total search terms and identifiers that went through normalization")
+            .labelNames("kind", "result") // search, identifier; changed, unchanged
+            .register();
+
+    public static final Counter normalizedCacheHits = Counter.build()//compare to searchHits{source="cache"}
+            .name("fredboat_normalized_cache_hits_total")
+            .help("Total search cache hits for terms changed by normalization, which their raw spelling would mostly have missed")
+            .labelNames("kind") // search
+            .register();
+
+    public static final Counter coalescedRequests = Counter.build()
+            .name("fredboat_coalesced_requests_total")
+            .help("Total requests answered by an identical request that was already in flight")
+            .labelNames("kind") // search, load
+            .register();
+
     public static final Counter tracksLoaded = Counter.build()
             .name("fredboat_music_tracks_loaded_total")
             .help("Total tracks loaded by the audio loader")
@@ -182,6 +226,89 @@ public class Metrics {
             .help("Total failed track loads by the audio loader")
             .register();
 
+    public static final Counter resolvedTracksNotCached = Counter.build()
+            .name("fredboat_music_resolved_tracks_not_cached_total")
+            .help("Total tracks resolved by the audio loader that were not kept in the resolved track cache")
+            .labelNames("reason") // stream, signed_url, not_encodable
+            .register();
+
+    public static final Gauge loadsQueued = Gauge.build()
+            .name("fredboat_music_loads_queued")
+            .help("Loads of identifiers waiting to be started by the load scheduler")
+            .register();
+
+    public static final Gauge loadsRunning = Gauge.build()
+            .name("fredboat_music_loads_running")
+            .help("Loads of identifiers started by the load scheduler that are not done yet")
+            .register();
+
+    public static final Histogram loadWaitTime = Histogram.build()//time from being queued to being started
+            .name("fredboat_music_load_wait_seconds")
+            .help("Time loads of identifiers waited to be started by the load scheduler")
+            .buckets(0.01, 0.05, 0.1, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register();
+
+    public static final Counter trackPreloads = Counter.build()
+            .name("fredboat_music_track_preloads_total")
+            .help("Total preloaded next tracks, by whether they ended up being played")
+            .labelNames("result") // hit, miss
+            .register();
+
+    public static final Counter audioFramesProvided = Counter.build()
+            .name("fredboat_audio_frames_provided_total")
+            .help("Total audio frames provided to Discord by music players")
+            .register();
+
+    public static final Counter audioFramesLost = Counter.build()
+            .name("fredboat_audio_frames_lost_total")
+            .help("Total audio frames music players were unable to provide while playing a track")
+            .register();
+
+    public static final Histogram audioFrameLossStreaks = Histogram.build()//consecutive frames lost before audio resumed
+            .name("fredboat_audio_frame_loss_streak_frames")
+            .help("Amount of audio frames lost in a row by music players")
+            .buckets(1, 2, 3, 5, 10, 25, 50, 150, 500, 1500)
+            .register();
+
+    public static final Gauge audioFrameBufferDuration = Gauge.build()
+            .name("fredboat_audio_frame_buffer_duration_milliseconds")
+            .help("Frame buffer duration given to freshly started tracks")
+            .register();
+
+    public static final Gauge audioResamplingQuality = Gauge.build()
+            .name("fredboat_audio_resampling_quality")
+            .help("Resampling quality given to freshly started tracks, the active one is set to 1")
+            .labelNames("quality") // LOW, MEDIUM, HIGH
+            .register();
+
+    public static final Gauge audioOpusEncodingQuality = Gauge.build()
+            .name("fredboat_audio_opus_encoding_quality")
+            .help("Opus encoding quality given to freshly started tracks, from 0 to 10")
+            .register();
+
+    public static final Counter audioQualityAdjustments = Counter.build()
+            .name("fredboat_audio_quality_adjustments_total")
+            .help("Total adjustments of audio settings made because of the node's load")
+            .labelNames("setting", "direction") // frame_buffer, resampling_quality, opus_encoding_quality; up, down
+            .register();
+
+    public static final Gauge playerRestoresPending = Gauge.build()
+            .name("fredboat_music_player_restores_pending")
+            .help("Players waiting to be restored after a restart or the revival of a shard")
+            .register();
+
+    public static final Counter playerRestores = Counter.build()
+            .name("fredboat_music_player_restores_total")
+            .help("Total players restored after a restart or the revival of a shard")
+            .labelNames("result") // restored, skipped, failed
+            .register();
+
+    public static final Histogram playerRestoreLatency = Histogram.build()//time from the shard being ready to the player being restored
+            .name("fredboat_music_player_restore_latency_seconds")
+            .help("Time players waited to be restored after their shard became ready")
+            .buckets(1, 5, 10, 30, 60, 120, 300, 600, 1200)
+            .register();
+
     public static final Counter voiceChannelsCleanedUp = Counter.build()
             .name("fredboat_music_voicechannels_cleanedup_total")
             .help("Total voice channels that were cleaned up by the voice channel agent")
@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util;
+
+import fredboat.feature.metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lets concurrent requests for the same key share a single computation: the first request computes the value, the ones
+ * arriving while it is in flight wait for it and receive a copy. Once the computation is done, the next request for
+ * the key starts a new one; nothing is cached here.
+ * <p>
+ * Requests that got the value of another one are counted by kind.
+ */
+public class SingleFlight<K, V> {
+
+    private final String kind;
+    private final UnaryOperator<V> share;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param kind  label of the deduplicated requests metric
+     * @param share creates the copy of a value handed to waiting requests, for values that must not be used by more
+     *              than one of them
+     */
+    public SingleFlight(String kind, UnaryOperator<V> share) {
+        this.kind = kind;
+        this.share = share;
+    }
+
+    /**
+     * Computes the value in the calling thread, or waits for the computation of an identical request.
+     */
+    public <E extends Exception> V execute(K key, Loader<V, E> loader) throws E {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            Metrics.coalescedRequests.labels(kind).inc();
+            try {
+                return share.apply(existing.join());
+            } catch (CompletionException e) {
+                throw SingleFlight.<E>rethrow(e.getCause());
+            }
+        }
+
+        try {
+            V value = loader.load();
+            created.complete(value);
+            return value;
+        } catch (Throwable t) {
+            created.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * Starts the computation of the value, or joins the computation of an identical request.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            Metrics.coalescedRequests.labels(kind).inc();
+            return existing.thenApply(share);
+        }
+
+        try {
+            loader.get().whenComplete((value, t) -> {
+                inFlight.remove(key, created);
+                if (t != null) {
+                    created.completeExceptionally(t);
+                } else {
+                    created.complete(value);
+                }
+            });
+        } catch (Throwable t) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(t);
+        }
+        return created;
+    }
+
+    /**
+     * @return amount of computations in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    //the cause was thrown by a loader of the same call site, so it is either unchecked or an E
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E rethrow(Throwable cause) throws E {
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw (E) cause;
+    }
+
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+}
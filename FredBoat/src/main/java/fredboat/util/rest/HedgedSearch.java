@@ -0,0 +1,242 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import fredboat.feature.metrics.Metrics;
+import fredboat.util.rest.SearchUtil.SearchingException;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steps of a search, ordered by preference. A step is started once the previous one failed or found nothing.
+ * <p>
+ * If the first step takes longer than it usually does (a percentile of its recent latencies), the second step is
+ * started alongside it, and the first result found by either of them is used. These hedges are paid for with tokens
+ * earned by every search, so they can't make up more than a configured share of all searches, no matter how degraded
+ * a provider is.
+ */
+class HedgedSearch {
+
+    //below this many recorded latencies a step is hedged after the default deadline
+    private static final int MIN_SAMPLES = 20;
+    private static final long DEFAULT_DEADLINE_MILLIS = 1000;
+    private static final long MIN_DEADLINE_MILLIS = 100;
+    private static final int TOKENS_PER_HEDGE = 100;
+    //amount of hedges that may be fired in a burst
+    private static final int MAX_BURST = 10;
+
+    private final int percentile;
+    private final int budgetPercent;
+    private final ExecutorService executor;
+    private final AtomicInteger tokens = new AtomicInteger(MAX_BURST * TOKENS_PER_HEDGE);
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param percentile    percentile of the first step's latency after which the second step is started, 0 disables
+     *                      hedging
+     * @param budgetPercent maximum share of searches that may be hedged
+     * @param executor      runs the steps of hedged searches
+     */
+    HedgedSearch(int percentile, int budgetPercent, ExecutorService executor) {
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+        this.executor = executor;
+    }
+
+    void recordLatency(String step, long millis) {
+        latencies.computeIfAbsent(step, __ -> new LatencyWindow()).record(millis);
+    }
+
+    /**
+     * @return the first non empty result of the steps, or null if none of them found anything
+     * @throws SearchingException if none of the steps found anything, and at least one of them failed
+     */
+    @Nullable
+    AudioPlaylist search(List<Step> steps, int timeoutMillis) throws SearchingException {
+        tokens.updateAndGet(t -> Math.min(t + budgetPercent, MAX_BURST * TOKENS_PER_HEDGE));
+        if (percentile <= 0 || steps.size() < 2) {
+            return searchSequentially(steps);
+        }
+        try {
+            return searchHedged(steps, deadline(steps.get(0).name, timeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchingException("Interrupted while searching");
+        }
+    }
+
+    @Nullable
+    private static AudioPlaylist searchSequentially(List<Step> steps) throws SearchingException {
+        SearchingException searchingException = null;
+        for (Step step : steps) {
+            try {
+                AudioPlaylist result = step.search();
+                if (result != null) {
+                    return result;
+                }
+            } catch (SearchingException e) {
+                searchingException = e;
+            }
+        }
+        if (searchingException != null) {
+            throw searchingException;
+        }
+        return null;
+    }
+
+    @Nullable
+    private AudioPlaylist searchHedged(List<Step> steps, long deadlineMillis)
+            throws SearchingException, InterruptedException {
+        CompletionService<AudioPlaylist> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<AudioPlaylist>, Step> running = new IdentityHashMap<>();
+        SearchingException searchingException = null;
+        Step hedge = null;
+        boolean deadlinePassed = false;
+        int next = 0;
+
+        running.put(completion.submit(steps.get(next++)::search), steps.get(0));
+        //steps that lose the race are not cancelled, their results still end up in the cache
+        while (!running.isEmpty()) {
+            Future<AudioPlaylist> done;
+            if (!deadlinePassed && next < steps.size()) {
+                done = completion.poll(deadlineMillis, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    deadlinePassed = true;
+                    if (tokens.getAndUpdate(t -> t >= TOKENS_PER_HEDGE ? t - TOKENS_PER_HEDGE : t) >= TOKENS_PER_HEDGE) {
+                        Metrics.searchHedges.labels("fired").inc();
+                        hedge = steps.get(next++);
+                        running.put(completion.submit(hedge::search), hedge);
+                    } else {
+                        Metrics.searchHedges.labels("denied").inc();
+                    }
+                    continue;
+                }
+            } else {
+                done = completion.take();
+            }
+
+            Step step = running.remove(done);
+            try {
+                AudioPlaylist result = done.get();
+                if (result != null) {
+                    if (step == hedge) {
+                        Metrics.searchHedges.labels("won").inc();
+                    }
+                    return result;
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SearchingException) {
+                    searchingException = (SearchingException) e.getCause();
+                } else {
+                    searchingException = new SearchingException("Failed to search " + step.name, e.getCause());
+                }
+            }
+
+            //nothing found, fall back to the next step like a sequential search does
+            if (running.isEmpty() && next < steps.size()) {
+                Step fallback = steps.get(next++);
+                running.put(completion.submit(fallback::search), fallback);
+            }
+        }
+
+        if (searchingException != null) {
+            throw searchingException;
+        }
+        return null;
+    }
+
+    private long deadline(String step, int timeoutMillis) {
+        LatencyWindow window = latencies.get(step);
+        long deadline = window == null ? -1 : window.percentile(percentile);
+        if (deadline < 0) {
+            deadline = DEFAULT_DEADLINE_MILLIS;
+        }
+        return Math.min(Math.max(deadline, MIN_DEADLINE_MILLIS), timeoutMillis);
+    }
+
+    static class Step {
+        private final String name;
+        private final Search search;
+
+        /**
+         * @param name   identifies the step for latency tracking
+         * @param search returns a non empty result, or null if nothing was found
+         */
+        Step(String name, Search search) {
+            this.name = name;
+            this.search = search;
+        }
+
+        @Nullable
+        private AudioPlaylist search() throws SearchingException {
+            return search.search();
+        }
+    }
+
+    @FunctionalInterface
+    interface Search {
+        @Nullable
+        AudioPlaylist search() throws SearchingException;
+    }
+
+    //the most recent latencies of a step
+    private static class LatencyWindow {
+        private static final int SIZE = 256;
+
+        private final long[] millis = new long[SIZE];
+        private int count = 0;
+
+        private synchronized void record(long latency) {
+            millis[count % SIZE] = latency;
+            count++;
+        }
+
+        //-1 if there are not enough samples yet
+        private synchronized long percentile(int percentile) {
+            int samples = Math.min(count, SIZE);
+            if (samples < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(millis, samples);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * samples) - 1;
+            return sorted[Math.min(Math.max(index, 0), samples - 1)];
+        }
+    }
+}
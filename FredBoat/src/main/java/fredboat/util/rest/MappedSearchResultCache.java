@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Second tier of the {@link SearchResultCache}: a memory mapped file of fixed size slots, which outlives restarts.
+ * <p>
+ * Each key hashes to a set of two slots; a new entry replaces the entry of the same key, an empty slot or the older
+ * entry of the set, in that order. A slot holds its length, a crc32 and the entry, so slots torn by a crash or
+ * overwritten while being read are treated as empty. Entries that don't fit into a slot are not cached here.
+ * <p>
+ * The page cache of the OS keeps the hot parts of the file in memory, without them counting towards the heap.
+ */
+class MappedSearchResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedSearchResultCache.class);
+
+    private static final int MAGIC = 0x46425343; //FBSC
+    private static final int VERSION = 1;
+    static final int SLOT_SIZE = 4096;
+    private static final int SLOT_HEADER = 8; //length, crc
+    private static final int MAX_ENTRY_SIZE = SLOT_SIZE - SLOT_HEADER;
+    private static final int WAYS = 2;
+    private static final int LOCK_STRIPES = 64;
+    private static final String TIER = "mapped";
+
+    private final MappedByteBuffer buffer;
+    private final int sets;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param size size of the file in bytes, the first slot is used for a header. Files of a different size or format
+     *             are cleared.
+     */
+    MappedSearchResultCache(File file, long size) throws IOException {
+        long slots = Math.min(size, Integer.MAX_VALUE) / SLOT_SIZE;
+        if (slots < 1 + WAYS) {
+            throw new IllegalArgumentException("A size of " + size + " bytes is too small for a search result cache");
+        }
+        this.sets = (int) ((slots - 1) / WAYS);
+        int length = (1 + sets * WAYS) * SLOT_SIZE;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean valid = raf.length() == length && raf.readInt() == MAGIC && raf.readInt() == VERSION
+                    && raf.readInt() == SLOT_SIZE;
+            if (!valid) {
+                log.info("Creating a new search result cache file {} of {} slots", file, sets * WAYS);
+                raf.setLength(0);
+                raf.setLength(length);
+                raf.seek(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(SLOT_SIZE);
+            }
+            //the mapping stays valid after closing the file
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Nullable
+    SearchResultCache.CachedSearchResult get(String key) {
+        int set = setOf(key);
+        synchronized (locks[set % LOCK_STRIPES]) {
+            for (int way = 0; way < WAYS; way++) {
+                Slot slot = read(set, way);
+                if (slot != null && slot.key.equals(key)) {
+                    return slot.result;
+                }
+            }
+        }
+        return null;
+    }
+
+    void put(String key, SearchResultCache.CachedSearchResult result) {
+        byte[] entry;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(result.getData().length + key.length() + 16);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeUTF(key);
+            out.writeLong(result.getTimestamp());
+            out.writeInt(result.getData().length);
+            out.write(result.getData());
+            entry = baos.toByteArray();
+        } catch (IOException | RuntimeException e) { //keys too long for writeUTF end up here
+            log.debug("Not caching search result {} in the mapped cache", key, e);
+            return;
+        }
+        if (entry.length > MAX_ENTRY_SIZE) {
+            return;
+        }
+
+        int set = setOf(key);
+        synchronized (locks[set % LOCK_STRIPES]) {
+            Slot[] slots = new Slot[WAYS];
+            int target = -1;
+            for (int way = 0; way < WAYS; way++) {
+                slots[way] = read(set, way);
+                if (slots[way] != null && slots[way].key.equals(key)) {
+                    target = way; //replace the entry of the same key
+                }
+            }
+            for (int way = 0; way < WAYS && target < 0; way++) {
+                if (slots[way] == null) {
+                    target = way;
+                }
+            }
+            if (target < 0) {
+                target = 0;
+                for (int way = 1; way < WAYS; way++) {
+                    if (slots[way].result.getTimestamp() < slots[target].result.getTimestamp()) {
+                        target = way;
+                    }
+                }
+                Metrics.searchResultCacheEvictions.labels(TIER).inc();
+            }
+            write(set, target, entry);
+        }
+    }
+
+    private int setOf(String key) {
+        return Math.floorMod(key.hashCode() * 0x9E3779B9, sets);
+    }
+
+    private int offsetOf(int set, int way) {
+        return (1 + set * WAYS + way) * SLOT_SIZE;
+    }
+
+    //null if the slot is empty or broken
+    @Nullable
+    private Slot read(int set, int way) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offsetOf(set, way));
+        int length = view.getInt();
+        int checksum = view.getInt();
+        if (length <= 0 || length > MAX_ENTRY_SIZE) {
+            return null;
+        }
+        byte[] entry = new byte[length];
+        view.get(entry);
+        CRC32 crc = new CRC32();
+        crc.update(entry);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+            String key = in.readUTF();
+            long timestamp = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Slot(key, new SearchResultCache.CachedSearchResult(timestamp, data));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void write(int set, int way, byte[] entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry);
+        ByteBuffer view = buffer.duplicate();
+        int offset = offsetOf(set, way);
+        //invalidate the slot first, so a crash while writing leaves it empty instead of mixed up
+        view.putInt(offset, 0);
+        view.position(offset + SLOT_HEADER);
+        view.put(entry);
+        view.putInt(offset + 4, (int) crc.getValue());
+        view.putInt(offset, entry.length);
+    }
+
+    private static class Slot {
+        private final String key;
+        private final SearchResultCache.CachedSearchResult result;
+
+        private Slot(String key, SearchResultCache.CachedSearchResult result) {
+            this.key = key;
+            this.result = result;
+        }
+    }
+}
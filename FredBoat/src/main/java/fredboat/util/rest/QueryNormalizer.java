@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Maps spellings of search terms and identifiers that lead to the same result onto the same key, so they share cache
+ * entries and in flight requests.
+ */
+public class QueryNormalizer {
+
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    //words people add to their searches that don't change which video they end up picking, longest first
+    private static final Pattern NOISE = Pattern.compile("(?<= )(official music video|official lyric video|official video"
+            + "|official audio|lyrics video|lyric video|with lyrics|lyrics|hd|hq)(?= )");
+    private static final Pattern VIDEO_ID = Pattern.compile("[A-Za-z0-9_-]{11}");
+    private static final Pattern PLAYLIST_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final Pattern SOUNDCLOUD_PATH = Pattern.compile("(/[^/]+)+");
+
+    private QueryNormalizer() {
+    }
+
+    /**
+     * Folds case and width, drops punctuation and common noise words and collapses whitespace. A term that consists of
+     * noise only keeps its noise.
+     */
+    public static String normalizeSearchTerm(String term) {
+        String folded = Normalizer.normalize(term, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        String collapsed = collapse(PUNCTUATION.matcher(folded).replaceAll(""));
+        String denoised = collapse(NOISE.matcher(" " + collapsed + " ").replaceAll(" "));
+        return denoised.isEmpty() ? collapsed : denoised;
+    }
+
+    /**
+     * Maps the different forms of youtube video and playlist urls (youtu.be, mobile, embeds, timestamps, tracking
+     * parameters etc) and of soundcloud permalinks (mobile, trailing slashes, tracking parameters etc) onto a
+     * canonical url. Other identifiers are returned trimmed.
+     */
+    public static String canonicalIdentifier(String identifier) {
+        String trimmed = identifier.trim();
+        URI uri = httpUri(trimmed);
+        if (uri == null) {
+            return trimmed;
+        }
+        String canonical = canonicalYoutubeUrl(uri);
+        if (canonical == null) {
+            canonical = canonicalSoundcloudUrl(uri);
+        }
+        return canonical != null ? canonical : trimmed;
+    }
+
+    @Nullable
+    private static URI httpUri(String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        return uri;
+    }
+
+    @Nullable
+    private static String canonicalYoutubeUrl(URI uri) {
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        String videoId = null;
+        String playlistId = queryParam(uri.getRawQuery(), "list");
+
+        switch (host) {
+            case "youtu.be":
+            case "www.youtu.be":
+                videoId = path.length() > 1 ? path.substring(1) : null;
+                break;
+            case "youtube.com":
+            case "www.youtube.com":
+            case "m.youtube.com":
+            case "music.youtube.com":
+                if (path.equals("/watch")) {
+                    videoId = queryParam(uri.getRawQuery(), "v");
+                } else if (path.startsWith("/embed/") || path.startsWith("/v/")) {
+                    videoId = path.substring(path.indexOf('/', 1) + 1);
+                } else if (!path.equals("/playlist")) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+
+        if (playlistId != null && !PLAYLIST_ID.matcher(playlistId).matches()) {
+            playlistId = null;
+        }
+        if (videoId != null) {
+            if (!VIDEO_ID.matcher(videoId).matches()) {
+                return null;
+            }
+            return "https://www.youtube.com/watch?v=" + videoId + (playlistId != null ? "&list=" + playlistId : "");
+        } else if (playlistId != null) {
+            return "https://www.youtube.com/playlist?list=" + playlistId;
+        }
+        return null;
+    }
+
+    //permalinks of tracks, sets and users. Query parameters only track where the link was shared from, except for the
+    // secret token of private tracks
+    @Nullable
+    private static String canonicalSoundcloudUrl(URI uri) {
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        switch (host) {
+            case "soundcloud.com":
+            case "www.soundcloud.com":
+            case "m.soundcloud.com":
+                break;
+            default:
+                return null;
+        }
+        String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if (!SOUNDCLOUD_PATH.matcher(path).matches()) {
+            return null;
+        }
+        String secretToken = queryParam(uri.getRawQuery(), "secret_token");
+        return "https://soundcloud.com" + path + (secretToken != null ? "?secret_token=" + secretToken : "");
+    }
+
+    @Nullable
+    private static String queryParam(@Nullable String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=") && pair.length() > name.length() + 1) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String collapse(String s) {
+        return WHITESPACE.matcher(s).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import fredboat.Config;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * Keeps encoded search results in front of the database, so popular searches never open a transaction.
+ * <p>
+ * The first tier lives on the heap and is bounded by the encoded size of its entries, the second one is a memory
+ * mapped file (see {@link MappedSearchResultCache}) that outlives restarts. Hits of the second tier are promoted to the
+ * first one. Entries keep the time they were searched at, so the max age of a lookup is honored the same way the
+ * database does; entries that are too old for a lookup are left to the database, which may know a more recent result.
+ */
+public class SearchResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchResultCache.class);
+
+    public static final String FILE = "search_cache.bin";
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final int ENTRY_OVERHEAD = 64; //rough heap usage of an entry besides its key and data, in bytes
+
+    public static final SearchResultCache ins = new SearchResultCache(
+            Config.CONFIG.getSearchCacheHeapSize() * MEGABYTE,
+            new File(FILE),
+            Config.CONFIG.getSearchCacheFileSize() * MEGABYTE);
+
+    private final Cache<String, CachedSearchResult> heap;
+    @Nullable
+    private final MappedSearchResultCache mapped;
+
+    SearchResultCache(long heapSize, File file, long fileSize) {
+        this.heap = CacheBuilder.newBuilder()
+                .maximumWeight(heapSize)
+                .<String, CachedSearchResult>weigher((key, result) -> 2 * key.length() + result.data.length + ENTRY_OVERHEAD)
+                .removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        Metrics.searchResultCacheEvictions.labels("heap").inc();
+                    }
+                })
+                .build();
+
+        MappedSearchResultCache mappedCache = null;
+        if (fileSize > 0) {
+            try {
+                mappedCache = new MappedSearchResultCache(file, fileSize);
+            } catch (Exception e) {
+                log.error("Failed to map the search result cache file {}, caching search results on the heap only", file, e);
+            }
+        }
+        this.mapped = mappedCache;
+    }
+
+    /**
+     * @param maxAgeMillis the maximum age of the cached search result; provide a negative value for eternal cache
+     * @return the cached search result, or null if there is none or it is too old
+     */
+    @Nullable
+    public CachedSearchResult get(SearchUtil.SearchProvider provider, String searchTerm, long maxAgeMillis) {
+        String key = key(provider, searchTerm);
+        CachedSearchResult result = heap.getIfPresent(key);
+        if (result != null) {
+            return fresh(result, maxAgeMillis, "heap");
+        }
+        Metrics.searchResultCacheRequests.labels("heap", "miss").inc();
+
+        if (mapped != null) {
+            result = mapped.get(key);
+            if (result == null) {
+                Metrics.searchResultCacheRequests.labels("mapped", "miss").inc();
+                return null;
+            }
+            heap.put(key, result);
+            return fresh(result, maxAgeMillis, "mapped");
+        }
+        return null;
+    }
+
+    /**
+     * @param timestamp when the search was made
+     * @param data      the encoded search result
+     */
+    public void put(SearchUtil.SearchProvider provider, String searchTerm, long timestamp, byte[] data) {
+        String key = key(provider, searchTerm);
+        CachedSearchResult result = new CachedSearchResult(timestamp, data);
+        heap.put(key, result);
+        if (mapped != null) {
+            mapped.put(key, result);
+        }
+    }
+
+    @Nullable
+    private static CachedSearchResult fresh(CachedSearchResult result, long maxAgeMillis, String tier) {
+        if (maxAgeMillis < 0 || System.currentTimeMillis() < result.timestamp + maxAgeMillis) {
+            Metrics.searchResultCacheRequests.labels(tier, "hit").inc();
+            return result;
+        }
+        Metrics.searchResultCacheRequests.labels(tier, "stale").inc();
+        return null;
+    }
+
+    private static String key(SearchUtil.SearchProvider provider, String searchTerm) {
+        return provider.name() + ":" + searchTerm;
+    }
+
+    public static class CachedSearchResult {
+        private final long timestamp;
+        private final byte[] data;
+
+        CachedSearchResult(long timestamp, byte[] data) {
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the encoded search result, must not be modified
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -40,12 +40,14 @@ import fredboat.db.DatabaseNotReadyException;
 import fredboat.db.entity.SearchResult;
 import fredboat.feature.metrics.Metrics;
 import fredboat.feature.togglz.FeatureFlags;
+import fredboat.util.SingleFlight;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -67,7 +69,14 @@ public class SearchUtil {
 
     //give youtube a break if we get flagged and keep getting 503s
     private static final long DEFAULT_YOUTUBE_COOLDOWN = TimeUnit.MINUTES.toMillis(10); // 10 minutes
-    private static long youtubeCooldownUntil;
+    //read and written by the hedged search steps running in parallel
+    private static volatile long youtubeCooldownUntil;
+
+    //searches are run by the shared executor, as the searching threads mostly wait for lavaplayer
+    private static final HedgedSearch HEDGED_SEARCH = new HedgedSearch(Config.CONFIG.getSearchHedgePercentile(),
+            Config.CONFIG.getSearchHedgeBudget(), FredBoat.executor);
+
+    private static final SingleFlight<String, AudioPlaylist> SEARCHES = new SingleFlight<>("search", SearchUtil::clonePlaylist);
 
     private static AudioPlayerManager initPlayerManager() {
         DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
@@ -80,6 +89,13 @@ public class SearchUtil {
         return manager;
     }
 
+    /**
+     * @return the PlayerManager used for searching, it can decode tracks of all search providers
+     */
+    public static AudioPlayerManager getPlayerManager() {
+        return PLAYER_MANAGER;
+    }
+
     public static AudioPlaylist searchForTracks(String query, List<SearchProvider> providers) throws SearchingException {
         return searchForTracks(query, DEFAULT_CACHE_MAX_AGE, DEFAULT_TIMEOUT, providers);
     }
@@ -106,70 +122,140 @@ public class SearchUtil {
             provs.addAll(providers);
         }
 
-        SearchingException searchingException = null;
+        //results are cached and shared under the normalized term, so different spellings of a query find each other
+        String term = QueryNormalizer.normalizeSearchTerm(query);
+        Metrics.queryNormalizations.labels("search", term.equals(query) ? "unchanged" : "changed").inc();
 
-        for (SearchProvider provider : provs) {
-            //1. cache
-            AudioPlaylist cacheResult = fromCache(provider, query, cacheMaxAge);
-            if (cacheResult != null && !cacheResult.getTracks().isEmpty()) {
-                log.debug("Loaded search result {} {} from cache", provider, query);
-                Metrics.searchHits.labels("cache").inc();
-                return cacheResult;
-            }
+        //identical searches running at the same time, for example many users requesting the same song after it got
+        //posted somewhere, are looked up once
+        String key = provs + ";" + cacheMaxAge + ";" + term;
+        return SEARCHES.execute(key, () -> search(query, term, cacheMaxAge, timeoutMillis, provs));
+    }
 
-            //2. lavaplayer todo break up this beautiful construction of ifs and exception handling in a better readable one?
-            if (provider != SearchProvider.YOUTUBE || System.currentTimeMillis() > youtubeCooldownUntil) {
-                try {
-                    AudioPlaylist lavaplayerResult = new SearchResultHandler().searchSync(provider, query, timeoutMillis);
-                    if (!lavaplayerResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from lavaplayer", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, lavaplayerResult).save());
-                        Metrics.searchHits.labels("lavaplayer-" + provider.name().toLowerCase()).inc();
-                        return lavaplayerResult;
-                    }
-                } catch (Http503Exception e) {
-                    if (provider == SearchProvider.YOUTUBE) {
-                        log.warn("Got a 503 from Youtube. Not hitting it with searches it for {} minutes", TimeUnit.MILLISECONDS.toMinutes(DEFAULT_YOUTUBE_COOLDOWN));
-                        youtubeCooldownUntil = System.currentTimeMillis() + DEFAULT_YOUTUBE_COOLDOWN;
-                    }
-                    searchingException = e;
-                } catch (SearchingException e) {
-                    searchingException = e;
-                }
+    /**
+     * Creates a playlist with fresh instances of the tracks of the provided one. Lavaplayer tracks can only be played
+     * once, so a result that is handed out more than once needs to be copied.
+     */
+    public static AudioPlaylist clonePlaylist(AudioPlaylist playlist) {
+        List<AudioTrack> tracks = new ArrayList<>(playlist.getTracks().size());
+        AudioTrack selected = null;
+        for (AudioTrack track : playlist.getTracks()) {
+            AudioTrack clone = track.makeClone();
+            if (track == playlist.getSelectedTrack()) {
+                selected = clone;
             }
+            tracks.add(clone);
+        }
+        return new BasicAudioPlaylist(playlist.getName(), tracks, selected, playlist.isSearchResult());
+    }
+
+    private static AudioPlaylist search(String query, String term, long cacheMaxAge, int timeoutMillis,
+                                        List<SearchProvider> provs)
+            throws SearchingException {
+        List<HedgedSearch.Step> steps = new ArrayList<>();
+        for (SearchProvider provider : provs) {
+            //1. cache, 2. lavaplayer
+            steps.add(new HedgedSearch.Step(lavaplayerStepName(provider),
+                    () -> searchProvider(provider, query, term, cacheMaxAge, timeoutMillis)));
 
             //3. optional: youtube api
             if (provider == SearchProvider.YOUTUBE &&
                     (Config.CONFIG.isPatronDistribution() || Config.CONFIG.isDevDistribution())) {
-                try {
-                    AudioPlaylist youtubeApiResult = YoutubeAPI.search(query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
-                    if (!youtubeApiResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from Youtube API", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, youtubeApiResult).save());
-                        Metrics.searchHits.labels("youtube-api").inc();
-                        return youtubeApiResult;
-                    }
-                } catch (SearchingException e) {
-                    searchingException = e;
-                }
+                steps.add(new HedgedSearch.Step("youtube-api", () -> searchYoutubeApi(query, term)));
             }
         }
 
-        //did we run into searching exceptions that made us end up here?
-        if (searchingException != null) {
+        AudioPlaylist result;
+        try {
+            result = HEDGED_SEARCH.search(steps, timeoutMillis);
+        } catch (SearchingException e) {
+            //we ran into searching exceptions and found nothing
             Metrics.searchHits.labels("exception").inc();
-            throw searchingException;
+            throw e;
+        }
+        if (result != null) {
+            return result;
         }
         //no result with any of the search providers
         Metrics.searchHits.labels("empty").inc();
         return new BasicAudioPlaylist("Search result for: " + query, Collections.emptyList(), null, true);
     }
 
-    private static AudioPlaylist fromCache(SearchProvider provider, String query, long cacheMaxAge) {
+    @Nullable
+    private static AudioPlaylist searchProvider(SearchProvider provider, String query, String term, long cacheMaxAge,
+                                                int timeoutMillis) throws SearchingException {
+        AudioPlaylist cacheResult = fromCache(provider, term, cacheMaxAge);
+        if (cacheResult != null && !cacheResult.getTracks().isEmpty()) {
+            log.debug("Loaded search result {} {} from cache", provider, term);
+            Metrics.searchHits.labels("cache").inc();
+            if (!term.equals(query)) {
+                Metrics.normalizedCacheHits.labels("search").inc();
+            }
+            return cacheResult;
+        }
+
+        if (provider == SearchProvider.YOUTUBE && System.currentTimeMillis() <= youtubeCooldownUntil) {
+            return null;
+        }
+
+        String stepName = lavaplayerStepName(provider);
+        long started = System.nanoTime();
+        AudioPlaylist lavaplayerResult;
+        try {
+            lavaplayerResult = new SearchResultHandler().searchSync(provider, query, timeoutMillis);
+        } catch (Http503Exception e) {
+            if (provider == SearchProvider.YOUTUBE) {
+                log.warn("Got a 503 from Youtube. Not hitting it with searches it for {} minutes", TimeUnit.MILLISECONDS.toMinutes(DEFAULT_YOUTUBE_COOLDOWN));
+                youtubeCooldownUntil = System.currentTimeMillis() + DEFAULT_YOUTUBE_COOLDOWN;
+            }
+            throw e;
+        } finally {
+            recordLatency(stepName, started);
+        }
+
+        if (lavaplayerResult.getTracks().isEmpty()) {
+            return null;
+        }
+        log.debug("Loaded search result {} {} from lavaplayer", provider, query);
+        // got a search result? cache and return it
+        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, term, lavaplayerResult).cache().save());
+        Metrics.searchHits.labels(stepName).inc();
+        return lavaplayerResult;
+    }
+
+    @Nullable
+    private static AudioPlaylist searchYoutubeApi(String query, String term) throws SearchingException {
+        long started = System.nanoTime();
+        AudioPlaylist youtubeApiResult;
+        try {
+            youtubeApiResult = YoutubeAPI.search(query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
+        } finally {
+            recordLatency("youtube-api", started);
+        }
+
+        if (youtubeApiResult.getTracks().isEmpty()) {
+            return null;
+        }
+        log.debug("Loaded search result {} {} from Youtube API", SearchProvider.YOUTUBE, query);
+        // got a search result? cache and return it
+        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, SearchProvider.YOUTUBE, term, youtubeApiResult).cache().save());
+        Metrics.searchHits.labels("youtube-api").inc();
+        return youtubeApiResult;
+    }
+
+    private static String lavaplayerStepName(SearchProvider provider) {
+        return "lavaplayer-" + provider.name().toLowerCase();
+    }
+
+    private static void recordLatency(String stepName, long startedNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+        Metrics.searchProviderLatency.labels(stepName).observe(millis / 1000.0);
+        HEDGED_SEARCH.recordLatency(stepName, millis);
+    }
+
+    private static AudioPlaylist fromCache(SearchProvider provider, String term, long cacheMaxAge) {
         try {
-            return SearchResult.load(PLAYER_MANAGER, provider, query, cacheMaxAge);
+            return SearchResult.load(PLAYER_MANAGER, provider, term, cacheMaxAge);
         } catch (DatabaseNotReadyException ignored) {
             log.warn("Could not retrieve cached search result from database.");
             return null;
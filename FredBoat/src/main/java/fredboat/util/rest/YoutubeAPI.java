@@ -36,9 +36,14 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class YoutubeAPI {
 
@@ -49,6 +54,9 @@ public class YoutubeAPI {
     public static final String YOUTUBE_SEARCH = "https://www.googleapis.com/youtube/v3/search?part=snippet";
     public static final String YOUTUBE_CHANNEL = "https://www.googleapis.com/youtube/v3/channels?part=snippet&fields=items(snippet/thumbnails)";
 
+    //maximum amount of ids accepted by a single videos request
+    public static final int MAX_VIDEOS_PER_REQUEST = 50;
+
     private YoutubeAPI() {
     }
 
@@ -77,53 +85,119 @@ public class YoutubeAPI {
 
     public static YoutubeVideo getVideoFromID(String id, boolean verbose) {
         if(verbose){
-            String gkey = Config.CONFIG.getRandomGoogleKey();
-            Http.SimpleRequest request = Http.get(YOUTUBE_VIDEO_VERBOSE, Http.Params.of(
-                    "id", id,
+            Map<String, YoutubeVideo> videos;
+            try {
+                videos = getVideosFromIDs(Collections.singletonList(id));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            YoutubeVideo vid = videos.get(id);
+            if (vid == null) {
+                throw new JSONException("Youtube returned no video for id " + id);
+            }
+            return vid;
+        } else {
+            return getVideoFromID(id);
+        }
+    }
+
+    /**
+     * Looks up the details of videos with as few requests as possible, each request covers up to
+     * {@link #MAX_VIDEOS_PER_REQUEST} videos and costs the same quota as a lookup of a single video.
+     *
+     * @return the videos that were found, in the order of the requested ids. Videos that don't exist (anymore) are
+     * missing.
+     */
+    public static Map<String, YoutubeVideo> getVideosFromIDs(List<String> ids) throws IOException {
+        return getVideosFromIDs(YOUTUBE_VIDEO_VERBOSE, Config.CONFIG.getRandomGoogleKey(), ids);
+    }
+
+    static Map<String, YoutubeVideo> getVideosFromIDs(String videosUrl, String gkey, List<String> ids) throws IOException {
+        Map<String, YoutubeVideo> found = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += MAX_VIDEOS_PER_REQUEST) {
+            List<String> batch = ids.subList(from, Math.min(from + MAX_VIDEOS_PER_REQUEST, ids.size()));
+            Http.SimpleRequest request = Http.get(videosUrl, Http.Params.of(
+                    "id", String.join(",", batch),
                     "key", gkey
             ));
 
-            JSONObject data = null;
+            JSONObject data = request.asJson();
             try {
-                data = request.asJson();
-                YoutubeVideo vid = new YoutubeVideo();
-                vid.id = data.getJSONArray("items").getJSONObject(0).getString("id");
-                vid.name = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("title");
-                vid.duration = data.getJSONArray("items").getJSONObject(0).getJSONObject("contentDetails").getString("duration");
-                vid.description = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("description");
-                vid.channelId = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("channelId");
-                vid.channelTitle = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("channelTitle");
-                vid.isStream = !data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("liveBroadcastContent").equals("none");
-
-                return vid;
+                JSONArray items = data.getJSONArray("items");
+                for (int i = 0; i < items.length(); i++) {
+                    YoutubeVideo vid = parseVerbose(items.getJSONObject(i));
+                    found.put(vid.id, vid);
+                }
             } catch (JSONException ex) {
-                log.error(data != null ? data.toString() : null);
-
-                log.error("API key used ends with: " + gkey.substring(20));
-
+                log.error("Could not parse youtube videos {}, API key used ends with: {}", data.toString(), gkey.substring(Math.min(20, gkey.length())));
                 throw ex;
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
             }
-        } else {
-            return getVideoFromID(id);
         }
+
+        Map<String, YoutubeVideo> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            YoutubeVideo vid = found.get(id);
+            if (vid != null) {
+                result.put(id, vid);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return url of the default thumbnail of the channel, or null if it has none
+     */
+    @Nullable
+    static String getChannelThumbUrl(String channelId) throws IOException {
+        Http.SimpleRequest request = Http.get(YOUTUBE_CHANNEL,
+                Http.Params.of(
+                        "id", channelId,
+                        "key", Config.CONFIG.getRandomGoogleKey()
+                ));
+        JSONObject json = request.asJson();
+        log.debug("Channel thumb response");
+        JSONArray items = json.getJSONArray("items");
+        if (items.length() == 0) {
+            return null;
+        }
+        return items.getJSONObject(0)
+                .getJSONObject("snippet")
+                .getJSONObject("thumbnails")
+                .getJSONObject("default")
+                .getString("url");
+    }
+
+    private static YoutubeVideo parseVerbose(JSONObject item) {
+        JSONObject snippet = item.getJSONObject("snippet");
+        YoutubeVideo vid = new YoutubeVideo();
+        vid.id = item.getString("id");
+        vid.name = snippet.getString("title");
+        vid.duration = item.getJSONObject("contentDetails").getString("duration");
+        vid.description = snippet.getString("description");
+        vid.channelId = snippet.getString("channelId");
+        vid.channelTitle = snippet.getString("channelTitle");
+        vid.isStream = !snippet.getString("liveBroadcastContent").equals("none");
+        return vid;
     }
 
     /**
      * @param query         Search Youtube for this query
-     * @param maxResults    Keep this as small as necessary, each of the videos needs to be looked up for more detailed info
+     * @param maxResults    Keep this as small as necessary, the details of the videos need to be looked up too
      * @param sourceManager The source manager may be used by the tracks to look further information up
      * @return A playlist representing the search results; null if there was an exception
      */
-    //docs: https://developers.google.com/youtube/v3/docs/search/list
-    //theres a lot of room for tweaking the searches
     public static AudioPlaylist search(String query, int maxResults, YoutubeAudioSourceManager sourceManager)
             throws SearchUtil.SearchingException {
+        return search(YOUTUBE_SEARCH, YOUTUBE_VIDEO_VERBOSE, Config.CONFIG.getRandomGoogleKey(), query, maxResults, sourceManager);
+    }
+
+    //docs: https://developers.google.com/youtube/v3/docs/search/list
+    //theres a lot of room for tweaking the searches
+    static AudioPlaylist search(String searchUrl, String videosUrl, String gkey, String query, int maxResults,
+                                YoutubeAudioSourceManager sourceManager) throws SearchUtil.SearchingException {
         JSONObject data;
-        String gkey = Config.CONFIG.getRandomGoogleKey();
 
-        Http.SimpleRequest request = Http.get(YOUTUBE_SEARCH, Http.Params.of(
+        Http.SimpleRequest request = Http.get(searchUrl, Http.Params.of(
                 "key", gkey,
                 "type", "video",
                 "maxResults", Integer.toString(maxResults),
@@ -136,7 +210,7 @@ public class YoutubeAPI {
         }
 
         //The search contains all values we need, except for the duration :feelsbadman:
-        //so we need to do another query for each video.
+        //so we need to look the videos up too.
         List<String> ids = new ArrayList<>(maxResults);
         try {
             JSONArray items = data.getJSONArray("items");
@@ -150,14 +224,17 @@ public class YoutubeAPI {
             throw new SearchUtil.SearchingException(message, e);
         }
 
+        Map<String, YoutubeVideo> videos;
+        try {
+            videos = getVideosFromIDs(videosUrl, gkey, ids);
+        } catch (IOException | JSONException e) {
+            throw new SearchUtil.SearchingException("Could not look up details for youtube videos with ids " + ids, e);
+        }
+
+        //videos that got removed since they were indexed for the search are skipped
         List<AudioTrack> tracks = new ArrayList<>();
-        for (String id : ids) {
-            try {
-                YoutubeVideo vid = getVideoFromID(id, true);
-                tracks.add(sourceManager.buildTrackObject(id, vid.name, vid.channelTitle, vid.isStream, vid.getDurationInMillis()));
-            } catch (RuntimeException e) {
-                throw new SearchUtil.SearchingException("Could not look up details for youtube video with id " + id, e);
-            }
+        for (YoutubeVideo vid : videos.values()) {
+            tracks.add(sourceManager.buildTrackObject(vid.id, vid.name, vid.channelTitle, vid.isStream, vid.getDurationInMillis()));
         }
         return new BasicAudioPlaylist("Search results for: " + query, tracks, null, true);
     }
@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import fredboat.Config;
+import fredboat.FredBoat;
+import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the details of youtube videos and the thumbnails of their channels, so showing the same video or channel
+ * again doesn't cost any Youtube API quota. Concurrent lookups of the same video or channel share a single request.
+ * <p>
+ * Videos are kept for a short while only, as their title and description may change and streams end; the thumbnail
+ * of a channel is kept longer.
+ * <p>
+ * Tracks of guilds that used the now playing command recently are looked up in the background when they start, so
+ * their next now playing embed is ready. Other guilds don't spend quota on embeds nobody is going to ask for.
+ */
+public class YoutubeMetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(YoutubeMetadataCache.class);
+
+    public static final YoutubeMetadataCache ins = new YoutubeMetadataCache();
+
+    //descriptions may be a few kilobytes
+    private final LoadingCache<String, YoutubeVideo> videos = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumSize(5000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build(new CacheLoader<String, YoutubeVideo>() {
+                @Override
+                public YoutubeVideo load(@Nonnull String videoId) {
+                    return YoutubeAPI.getVideoFromID(videoId, true);
+                }
+            });
+
+    //empty if the channel has no thumbnail
+    private final LoadingCache<String, Optional<String>> channelThumbs = CacheBuilder.newBuilder()
+            .recordStats()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.DAYS)
+            .build(new CacheLoader<String, Optional<String>>() {
+                @Override
+                public Optional<String> load(@Nonnull String channelId) throws Exception {
+                    return Optional.ofNullable(YoutubeAPI.getChannelThumbUrl(channelId));
+                }
+            });
+
+    //guilds that asked for the now playing embed recently, only their tracks are prewarmed
+    private final Cache<Long, Boolean> nowPlayingGuilds = CacheBuilder.newBuilder()
+            .expireAfterWrite(30, TimeUnit.MINUTES)
+            .build();
+
+    private YoutubeMetadataCache() {
+        Metrics.instance().cacheMetrics.addCache("youtubeVideos", videos);
+        Metrics.instance().cacheMetrics.addCache("youtubeChannelThumbs", channelThumbs);
+    }
+
+    /**
+     * @return the details of the video, looked up with the Youtube API unless they are cached
+     */
+    public YoutubeVideo getVideo(String videoId) {
+        try {
+            return videos.getUnchecked(videoId);
+        } catch (UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * @return url of the default thumbnail of the channel, or null if it has none or the lookup failed
+     */
+    @Nullable
+    public String getChannelThumbUrl(String channelId) {
+        try {
+            return channelThumbs.get(channelId).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            log.error("Failed to get channel thumbnail", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Lets the tracks of the guild be prewarmed for a while
+     */
+    public void nowPlayingUsed(long guildId) {
+        nowPlayingGuilds.put(guildId, Boolean.TRUE);
+    }
+
+    /**
+     * Looks the video and its channel thumbnail up in the background, unless they are cached already, so showing them
+     * later does not have to wait for the Youtube API. Does nothing unless the guild used the now playing command
+     * recently.
+     */
+    public void prewarm(long guildId, String videoId) {
+        if (Config.CONFIG.getGoogleKeys().isEmpty() || nowPlayingGuilds.getIfPresent(guildId) == null) {
+            return;
+        }
+        FredBoat.executor.execute(() -> {
+            try {
+                YoutubeVideo video = videos.getUnchecked(videoId);
+                if (video.getChannelId() != null) {
+                    channelThumbs.get(video.getChannelId());
+                }
+            } catch (Exception e) {
+                log.debug("Failed to prewarm youtube metadata of video {}", videoId, e);
+            }
+        });
+    }
+}
@@ -25,20 +25,12 @@
 
 package fredboat.util.rest;
 
-import fredboat.Config;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.IOException;
+import javax.annotation.Nullable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class YoutubeVideo {
 
-    private static final Logger log = LoggerFactory.getLogger(YoutubeVideo.class);
-
     String id = null;
     String name = null;
     String duration = null;//Youtube has strange duration strings suchs as PT2H3M33S
@@ -125,25 +117,9 @@ public class YoutubeVideo {
         return "https://www.youtube.com/channel/" + channelId;
     }
 
+    @Nullable
     public String getChannelThumbUrl() {
-        Http.SimpleRequest request = Http.get(YoutubeAPI.YOUTUBE_CHANNEL,
-                Http.Params.of(
-                        "id", channelId,
-                        "key", Config.CONFIG.getRandomGoogleKey()
-                ));
-        try {
-            JSONObject json = request.asJson();
-            log.debug("Channel thumb response");
-            return json.getJSONArray("items")
-                    .getJSONObject(0)
-                    .getJSONObject("snippet")
-                    .getJSONObject("thumbnails")
-                    .getJSONObject("default")
-                    .getString("url");
-        } catch (JSONException | IOException e) {
-            log.error("Failed to get channel thumbnail", e);
-            return null;
-        }
+        return YoutubeMetadataCache.ins.getChannelThumbUrl(channelId);
     }
 
     private String forceTwoDigits(int i) {
@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests the caps, the order and the bookkeeping of the LoadScheduler. Loads are started directly on the calling
+ * thread and are done once the test completes them. Does not require a JDA instance.
+ */
+public class LoadSchedulerTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void saveStats() {
+        saveClassStats(LoadSchedulerTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testPerGuildCap() {
+        Loads loads = new Loads(10, 2);
+        for (int i = 0; i < 5; i++) {
+            loads.submit(1, "a" + i);
+        }
+        Assertions.assertEquals(Arrays.asList("a0", "a1"), loads.started);
+        Assertions.assertEquals(2, loads.scheduler.getRunning());
+        Assertions.assertEquals(3, loads.scheduler.getQueued());
+
+        loads.complete("a1");
+        Assertions.assertEquals(Arrays.asList("a0", "a1", "a2"), loads.started);
+        Assertions.assertEquals(2, loads.scheduler.getRunning());
+        Assertions.assertEquals(2, loads.scheduler.getQueued());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFewestRunningFirst() {
+        Loads loads = new Loads(3, 3);
+        for (int i = 0; i < 6; i++) {
+            loads.submit(1, "a" + i);
+        }
+        loads.submit(2, "b0");
+        loads.submit(2, "b1");
+        loads.submit(3, "c0");
+        Assertions.assertEquals(Arrays.asList("a0", "a1", "a2"), loads.started);
+
+        //guilds without running loads go first, in the order they got in line
+        loads.complete("a0");
+        loads.complete("a1");
+        Assertions.assertEquals(Arrays.asList("a0", "a1", "a2", "b0", "c0"), loads.started);
+
+        //now the first guild has the fewest running loads
+        loads.complete("a2");
+        Assertions.assertEquals(Arrays.asList("a0", "a1", "a2", "b0", "c0", "a3"), loads.started);
+        loads.complete("c0");
+        Assertions.assertEquals(Arrays.asList("a0", "a1", "a2", "b0", "c0", "a3", "b1"), loads.started);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testCancel() {
+        Loads loads = new Loads(1, 1);
+        LoadScheduler.Ticket running = loads.submit(1, "a0");
+        LoadScheduler.Ticket queued = loads.submit(1, "a1");
+        loads.submit(2, "b0");
+        Assertions.assertEquals(2, loads.scheduler.getQueued());
+
+        Assertions.assertFalse(running.cancel());
+        Assertions.assertTrue(queued.cancel());
+        Assertions.assertFalse(queued.cancel());
+        Assertions.assertEquals(1, loads.scheduler.getQueued());
+
+        loads.complete("a0");
+        Assertions.assertEquals(Arrays.asList("a0", "b0"), loads.started);
+        loads.complete("b0");
+        Assertions.assertEquals(0, loads.scheduler.getQueued());
+        Assertions.assertEquals(0, loads.scheduler.getRunning());
+        Assertions.assertEquals(0, loads.scheduler.getGuildCount());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testGuildsAreForgottenWhenDone() {
+        Loads loads = new Loads(4, 2);
+        loads.submit(1, "a0");
+        loads.submit(1, "a1");
+        loads.submit(1, "a2");
+        loads.submit(2, "b0");
+        Assertions.assertEquals(2, loads.scheduler.getGuildCount());
+
+        loads.complete("b0");
+        Assertions.assertEquals(1, loads.scheduler.getGuildCount());
+        //still has a queued load
+        loads.complete("a0");
+        loads.complete("a1");
+        Assertions.assertEquals(1, loads.scheduler.getGuildCount());
+        loads.complete("a2");
+        Assertions.assertEquals(0, loads.scheduler.getGuildCount());
+
+        //loads that complete right away or fail to start don't keep their guild around either
+        for (int i = 0; i < 50; i++) {
+            loads.scheduler.submit(3, () -> CompletableFuture.completedFuture(null));
+        }
+        loads.scheduler.submit(4, () -> {
+            throw new IllegalStateException("failing to start");
+        });
+        Assertions.assertEquals(0, loads.scheduler.getQueued());
+        Assertions.assertEquals(0, loads.scheduler.getRunning());
+        Assertions.assertEquals(0, loads.scheduler.getGuildCount());
+        bumpPassedTests();
+    }
+
+    //loads that stay running until they are completed by name
+    private static class Loads {
+        private final LoadScheduler scheduler;
+        private final List<String> started = new ArrayList<>();
+        private final Map<String, CompletableFuture<Void>> running = new HashMap<>();
+
+        private Loads(int maxRunning, int maxRunningPerGuild) {
+            scheduler = new LoadScheduler(maxRunning, maxRunningPerGuild, Runnable::run);
+        }
+
+        private LoadScheduler.Ticket submit(long guildId, String name) {
+            return scheduler.submit(guildId, () -> {
+                started.add(name);
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                running.put(name, done);
+                return done;
+            });
+        }
+
+        private void complete(String name) {
+            running.remove(name).complete(null);
+        }
+    }
+}
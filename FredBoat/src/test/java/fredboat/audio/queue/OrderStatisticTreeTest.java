@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the OrderStatisticTree against a sorted list under random operations, in the two orders the queue uses:
+ * insertion order and shuffle order. Does not require a JDA instance.
+ */
+public class OrderStatisticTreeTest extends ProvideJDASingleton {
+
+    private static final Comparator<Item> INSERTION_ORDER = Comparator.comparingLong(item -> item.sequence);
+    //shuffle keys are drawn from a small range, so that ties have to be broken by the sequence
+    private static final Comparator<Item> SHUFFLE_ORDER = Comparator.<Item>comparingInt(item -> item.rand)
+            .thenComparingLong(item -> item.sequence);
+
+    @AfterAll
+    public static void saveStats() {
+        saveClassStats(OrderStatisticTreeTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        assertMatchesReference(INSERTION_ORDER, new Random(1));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testShuffleOrder() {
+        assertMatchesReference(SHUFFLE_ORDER, new Random(2));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testEmptyTree() {
+        OrderStatisticTree<Item> tree = new OrderStatisticTree<>(INSERTION_ORDER);
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertNull(tree.first());
+        Assertions.assertNull(tree.pollFirst());
+        Assertions.assertEquals(-1, tree.indexOf(new Item(1, 1)));
+        Assertions.assertFalse(tree.remove(new Item(1, 1)));
+        Assertions.assertTrue(tree.range(-5, 5).isEmpty());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> tree.get(0));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> tree.removeAt(0));
+        bumpPassedTests();
+    }
+
+    private static void assertMatchesReference(Comparator<Item> comparator, Random random) {
+        OrderStatisticTree<Item> tree = new OrderStatisticTree<>(comparator);
+        List<Item> reference = new ArrayList<>();
+        long nextSequence = 0;
+
+        for (int i = 0; i < 20000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 5 || reference.isEmpty()) {
+                Item item = new Item(nextSequence++, random.nextInt(50));
+                Assertions.assertTrue(tree.add(item));
+                reference.add(-Collections.binarySearch(reference, item, comparator) - 1, item);
+            } else if (operation == 5) {
+                Item existing = reference.get(random.nextInt(reference.size()));
+                Assertions.assertFalse(tree.add(existing));
+            } else if (operation == 6) {
+                Item item = reference.remove(random.nextInt(reference.size()));
+                Assertions.assertTrue(tree.remove(item));
+                Assertions.assertFalse(tree.remove(item));
+            } else if (operation == 7) {
+                int index = random.nextInt(reference.size());
+                Assertions.assertSame(reference.remove(index), tree.removeAt(index));
+            } else if (operation == 8) {
+                Assertions.assertSame(reference.remove(0), tree.pollFirst());
+            } else {
+                Assertions.assertFalse(tree.remove(new Item(nextSequence + 1, random.nextInt(50))));
+            }
+
+            Assertions.assertEquals(reference.size(), tree.size());
+            Assertions.assertEquals(reference.isEmpty(), tree.isEmpty());
+            Assertions.assertSame(reference.isEmpty() ? null : reference.get(0), tree.first());
+            if (!reference.isEmpty()) {
+                int index = random.nextInt(reference.size());
+                Item item = reference.get(index);
+                Assertions.assertSame(item, tree.get(index));
+                Assertions.assertEquals(index, tree.indexOf(item));
+                Assertions.assertTrue(tree.contains(item));
+            }
+            Assertions.assertEquals(-1, tree.indexOf(new Item(nextSequence, 0)));
+
+            //ranges may reach past both ends, they are clamped to the tree
+            int from = random.nextInt(reference.size() + 4) - 2;
+            int to = from + random.nextInt(12) - 2;
+            int clampedFrom = Math.max(from, 0);
+            int clampedTo = Math.min(to, reference.size());
+            List<Item> expected = clampedFrom < clampedTo ? reference.subList(clampedFrom, clampedTo)
+                    : Collections.emptyList();
+            Assertions.assertEquals(expected, tree.range(from, to));
+
+            if (i % 1000 == 0) {
+                Assertions.assertEquals(reference, tree.toList());
+            }
+        }
+        Assertions.assertEquals(reference, tree.toList());
+
+        tree.clear();
+        Assertions.assertTrue(tree.isEmpty());
+        Assertions.assertTrue(tree.toList().isEmpty());
+    }
+
+    private static class Item {
+        private final long sequence;
+        private final int rand;
+
+        private Item(long sequence, int rand) {
+            this.sequence = sequence;
+            this.rand = rand;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + "/" + rand;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests which resolved tracks are cached and that the cache hands out fresh tracks. Does not require a JDA instance.
+ */
+public class ResolvedTrackCacheTest extends ProvideJDASingleton {
+
+    private static final YoutubeAudioSourceManager sourceManager = new YoutubeAudioSourceManager();
+    private static AudioPlayerManager playerManager;
+
+    @BeforeAll
+    public static void createPlayerManager() {
+        playerManager = new DefaultAudioPlayerManager();
+        playerManager.registerSourceManager(sourceManager);
+    }
+
+    @AfterAll
+    public static void saveStats() {
+        playerManager.shutdown();
+        saveClassStats(ResolvedTrackCacheTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testSignedUrls() {
+        Assertions.assertTrue(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3?Expires=1510000000&Signature=abc"));
+        Assertions.assertTrue(ResolvedTrackCache.isSigned("https://s3.amazonaws.com/b/a.mp3?X-Amz-Expires=600&X-Amz-Signature=abc"));
+        Assertions.assertTrue(ResolvedTrackCache.isSigned("https://storage.googleapis.com/b/a.mp3?x-goog-signature=abc"));
+        Assertions.assertTrue(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3?v=2&token=abc"));
+        Assertions.assertTrue(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3?sig"));
+
+        Assertions.assertFalse(ResolvedTrackCache.isSigned(null));
+        Assertions.assertFalse(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3"));
+        Assertions.assertFalse(ResolvedTrackCache.isSigned("https://www.youtube.com/watch?v=dQw4w9WgXcQ&list=PL123"));
+        Assertions.assertFalse(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3?signatures=1&tokens=2"));
+        //only the query counts, not the fragment
+        Assertions.assertFalse(ResolvedTrackCache.isSigned("https://cdn.example.com/a.mp3#?expires=1"));
+        Assertions.assertFalse(ResolvedTrackCache.isSigned("not a url at all"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRoundTripReturnsFreshTracks() {
+        String identifier = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+        AudioTrack track = sourceManager.buildTrackObject("dQw4w9WgXcQ", "title", "uploader", false, 212000);
+        ResolvedTrackCache.ins.put(playerManager, identifier, track);
+
+        AudioTrack first = ResolvedTrackCache.ins.get(playerManager, identifier);
+        AudioTrack second = ResolvedTrackCache.ins.get(playerManager, identifier);
+        Assertions.assertNotNull(first);
+        Assertions.assertNotNull(second);
+        Assertions.assertNotSame(track, first);
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(track.getIdentifier(), first.getIdentifier());
+        Assertions.assertEquals(track.getInfo().title, first.getInfo().title);
+        Assertions.assertEquals(track.getDuration(), first.getDuration());
+
+        Assertions.assertNull(ResolvedTrackCache.ins.get(playerManager, "https://www.youtube.com/watch?v=notCachedId"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testStreamsAndSignedUrlsAreNotCached() {
+        String streamIdentifier = "https://www.youtube.com/watch?v=liveStream1";
+        ResolvedTrackCache.ins.put(playerManager, streamIdentifier,
+                sourceManager.buildTrackObject("liveStream1", "stream", "uploader", true, Long.MAX_VALUE));
+        Assertions.assertNull(ResolvedTrackCache.ins.get(playerManager, streamIdentifier));
+
+        String signedIdentifier = "https://cdn.example.com/a.mp3?Expires=1510000000&Signature=abc";
+        ResolvedTrackCache.ins.put(playerManager, signedIdentifier,
+                sourceManager.buildTrackObject("signedTrac1", "signed", "uploader", false, 1000));
+        Assertions.assertNull(ResolvedTrackCache.ins.get(playerManager, signedIdentifier));
+        bumpPassedTests();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Tests for the running totals and the indexes of the SimpleTrackProvider. Does not require a JDA instance.
+ */
+public class SimpleTrackProviderTest extends ProvideJDASingleton {
+
+    private static final YoutubeAudioSourceManager sourceManager = new YoutubeAudioSourceManager();
+    private static final long GUILD_ID = 1;
+
+    @AfterAll
+    public static void saveStats() {
+        saveClassStats(SimpleTrackProviderTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testTotals() {
+        SimpleTrackProvider provider = new SimpleTrackProvider();
+        AudioTrackContext a = context("a", 1000, false, 10);
+        AudioTrackContext b = context("b", 2000, false, 10);
+        AudioTrackContext stream = context("c", Long.MAX_VALUE, true, 20);
+
+        provider.addAll(Arrays.asList(a, b, stream));
+        Assertions.assertEquals(3000, provider.getDurationMillis());
+        Assertions.assertEquals(1, provider.streamsCount());
+        Assertions.assertEquals(2, provider.getUserTrackCount(10));
+        Assertions.assertTrue(provider.isUserTrackOwner(10, Arrays.asList(a.getTrackId(), b.getTrackId())));
+        Assertions.assertFalse(provider.isUserTrackOwner(10, Collections.singletonList(stream.getTrackId())));
+
+        provider.remove(b);
+        Assertions.assertEquals(1000, provider.getDurationMillis());
+        Assertions.assertEquals(1, provider.getUserTrackCount(10));
+        provider.checkConsistency();
+
+        provider.clear();
+        Assertions.assertEquals(0, provider.getDurationMillis());
+        Assertions.assertEquals(0, provider.streamsCount());
+        Assertions.assertEquals(0, provider.getUserTrackCount(20));
+        provider.checkConsistency();
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testTotalsStayConsistent() {
+        SimpleTrackProvider provider = new SimpleTrackProvider();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 5000; i++) {
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                case 2:
+                    provider.add(context("track" + i, random.nextInt(600000), random.nextInt(10) == 0, random.nextInt(5)));
+                    break;
+                case 3:
+                    if (!provider.isEmpty()) provider.removeAt(random.nextInt(provider.size()));
+                    break;
+                case 4:
+                    provider.provideAudioTrack();
+                    break;
+                case 5:
+                    provider.setShuffle(random.nextBoolean());
+                    break;
+                case 6:
+                    provider.setRepeatMode(RepeatMode.values()[random.nextInt(RepeatMode.values().length)]);
+                    break;
+                default:
+                    if (random.nextInt(20) == 0) provider.reshuffle();
+            }
+            provider.checkConsistency();
+        }
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRemoveByUser() {
+        SimpleTrackProvider provider = new SimpleTrackProvider();
+        AudioTrackContext a = context("a", 1000, false, 10);
+        AudioTrackContext b = context("b", 2000, false, 20);
+        AudioTrackContext c = context("c", 3000, false, 10);
+        AudioTrackContext d = context("d", 4000, false, 20);
+        provider.addAll(Arrays.asList(a, b, c, d));
+
+        //the clone of a that gets queued again has to be indexed for the same user
+        provider.setRepeatMode(RepeatMode.ALL);
+        Assertions.assertSame(a, provider.provideAudioTrack());
+        Assertions.assertSame(b, provider.provideAudioTrack());
+        Assertions.assertEquals(3, provider.size());
+        Assertions.assertEquals(2, provider.getTrackIdsByUser(10).size());
+        provider.checkConsistency();
+
+        provider.removeAllById(provider.getTrackIdsByUser(10));
+        Assertions.assertEquals(1, provider.size());
+        Assertions.assertEquals(0, provider.getUserTrackCount(10));
+        Assertions.assertSame(d, provider.getTrack(0));
+        Assertions.assertTrue(provider.getTrackIdsByUser(10).isEmpty());
+        provider.checkConsistency();
+        bumpPassedTests();
+    }
+
+    static AudioTrackContext context(String videoId, long duration, boolean isStream, long userId) {
+        AudioTrack track = sourceManager.buildTrackObject(videoId, videoId, "uploader", isStream, duration);
+        return new AudioTrackContext(track, GUILD_ID, userId);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs the normalization against the corpora in the normalization test resources. Does not require a JDA instance.
+ */
+public class QueryNormalizerTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void saveStats() {
+        saveClassStats(QueryNormalizerTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testSearchTermCorpus() throws IOException {
+        assertCorpus("/normalization/search_terms.tsv", QueryNormalizer::normalizeSearchTerm);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testIdentifierCorpus() throws IOException {
+        assertCorpus("/normalization/identifiers.tsv", QueryNormalizer::canonicalIdentifier);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testNormalizationIsIdempotent() throws IOException {
+        for (String[] entry : readCorpus("/normalization/search_terms.tsv")) {
+            Assertions.assertEquals(entry[1], QueryNormalizer.normalizeSearchTerm(entry[1]));
+        }
+        for (String[] entry : readCorpus("/normalization/identifiers.tsv")) {
+            Assertions.assertEquals(entry[1], QueryNormalizer.canonicalIdentifier(entry[1]));
+        }
+        bumpPassedTests();
+    }
+
+    //reports all mismatches of the corpus at once
+    private static void assertCorpus(String resource, UnaryOperator<String> normalization) throws IOException {
+        List<String[]> corpus = readCorpus(resource);
+        Assertions.assertFalse(corpus.isEmpty(), "corpus " + resource + " is empty");
+
+        List<String> mismatches = new ArrayList<>();
+        for (String[] entry : corpus) {
+            String actual = normalization.apply(entry[0]);
+            if (!entry[1].equals(actual)) {
+                mismatches.add("'" + entry[0] + "' -> '" + actual + "', expected '" + entry[1] + "'");
+            }
+        }
+        Assertions.assertTrue(mismatches.isEmpty(), String.join("\n", mismatches));
+    }
+
+    private static List<String[]> readCorpus(String resource) throws IOException {
+        List<String[]> corpus = new ArrayList<>();
+        try (InputStream in = QueryNormalizerTest.class.getResourceAsStream(resource)) {
+            Assertions.assertNotNull(in, "missing corpus " + resource);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] entry = line.split("\t", 2);
+                Assertions.assertEquals(2, entry.length, "malformed corpus line: " + line);
+                corpus.add(entry);
+            }
+        }
+        return corpus;
+    }
+}
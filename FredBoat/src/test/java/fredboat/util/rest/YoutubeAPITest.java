@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fredboat.ProvideJDASingleton;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests the Youtube API lookups against a local stand-in of the API that records the requests made to it. Does not
+ * require a JDA instance or API keys.
+ */
+public class YoutubeAPITest extends ProvideJDASingleton {
+
+    private static final String KEY = "offline-test-key-not-a-real-one";
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    //videos the stand-in knows about, all other ids are treated as removed
+    private final Set<String> existing = new HashSet<>();
+    private HttpServer server;
+    private String searchUrl;
+    private String videosUrl;
+
+    @AfterAll
+    public static void saveStats() {
+        saveClassStats(YoutubeAPITest.class.getSimpleName());
+    }
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", exchange -> {
+            requests.add(exchange.getRequestURI().toString());
+            JSONArray items = new JSONArray();
+            for (int i = 0; i < 5; i++) {
+                items.put(new JSONObject().put("id", new JSONObject().put("videoId", "video" + i)));
+            }
+            respond(exchange, new JSONObject().put("items", items));
+        });
+        server.createContext("/videos", exchange -> {
+            requests.add(exchange.getRequestURI().toString());
+            String ids = param(exchange.getRequestURI().getQuery(), "id");
+            JSONArray items = new JSONArray();
+            for (String id : ids.split(",")) {
+                if (existing.contains(id)) {
+                    items.put(video(id));
+                }
+            }
+            respond(exchange, new JSONObject().put("items", items));
+        });
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        searchUrl = base + "/search?part=snippet";
+        videosUrl = base + "/videos?part=contentDetails,snippet";
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void searchLooksUpAllResultsAtOnce() throws SearchUtil.SearchingException {
+        existing.addAll(Arrays.asList("video0", "video1", "video2", "video3", "video4"));
+
+        AudioPlaylist result = YoutubeAPI.search(searchUrl, videosUrl, KEY, "query", 5, new YoutubeAudioSourceManager());
+
+        Assertions.assertEquals(2, requests.size(), "one search and one video lookup");
+        Assertions.assertEquals(5, result.getTracks().size());
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals("video" + i, result.getTracks().get(i).getIdentifier());
+            Assertions.assertEquals("Title of video" + i, result.getTracks().get(i).getInfo().title);
+            Assertions.assertEquals(183000, result.getTracks().get(i).getDuration());
+        }
+        bumpPassedTests();
+    }
+
+    @Test
+    public void searchSkipsRemovedVideos() throws SearchUtil.SearchingException {
+        existing.addAll(Arrays.asList("video0", "video2", "video4"));
+
+        AudioPlaylist result = YoutubeAPI.search(searchUrl, videosUrl, KEY, "query", 5, new YoutubeAudioSourceManager());
+
+        Assertions.assertEquals(2, requests.size());
+        Assertions.assertEquals(3, result.getTracks().size());
+        Assertions.assertEquals("video2", result.getTracks().get(1).getIdentifier());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void lookupsAreSplitIntoBatches() throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 2 * YoutubeAPI.MAX_VIDEOS_PER_REQUEST + 1; i++) {
+            ids.add("video" + i);
+        }
+        existing.addAll(ids);
+        Collections.reverse(ids);
+
+        Map<String, YoutubeVideo> videos = YoutubeAPI.getVideosFromIDs(videosUrl, KEY, ids);
+
+        Assertions.assertEquals(3, requests.size());
+        Assertions.assertEquals(ids, new ArrayList<>(videos.keySet()), "videos are returned in the requested order");
+        Assertions.assertEquals("Channel of video7", videos.get("video7").getChannelTitle());
+        bumpPassedTests();
+    }
+
+    private static JSONObject video(String id) {
+        return new JSONObject()
+                .put("id", id)
+                .put("snippet", new JSONObject()
+                        .put("title", "Title of " + id)
+                        .put("description", "Description of " + id)
+                        .put("channelId", "channel-" + id)
+                        .put("channelTitle", "Channel of " + id)
+                        .put("liveBroadcastContent", "none"))
+                .put("contentDetails", new JSONObject().put("duration", "PT3M3S"));
+    }
+
+    private static String param(String query, String name) {
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return "";
+    }
+
+    private static void respond(HttpExchange exchange, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}